@@ -15,10 +15,6 @@
  */
 package org.mybatis.caches.memcached;
 
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,13 +35,12 @@ abstract class AbstractPropertySetter<T> {
   private static Map<String, Method> WRITERS = new HashMap<String, Method>();
 
   static {
-    try {
-      BeanInfo memcachedConfigInfo = Introspector.getBeanInfo(MemcachedConfiguration.class);
-      for (PropertyDescriptor descriptor : memcachedConfigInfo.getPropertyDescriptors()) {
-        WRITERS.put(descriptor.getName(), descriptor.getWriteMethod());
+    // plain setters lookup, the full bean introspection is slow and useless here
+    for (Method method : MemcachedConfiguration.class.getMethods()) {
+      String name = method.getName();
+      if (name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1) {
+        WRITERS.put(Character.toLowerCase(name.charAt(3)) + name.substring(4), method);
       }
-    } catch (IntrospectionException e) {
-      // handle quietly
     }
   }
 
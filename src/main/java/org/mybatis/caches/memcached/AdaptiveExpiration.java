@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the expiration of the entries of each cache id from how often the
+ * cache id is cleared: the entries of a namespace cleared every few seconds
+ * expire quickly, the ones of a namespace that doesn't change live long,
+ * always within the configured bounds.
+ *
+ * Only the clears performed by this client are observed.
+ */
+final class AdaptiveExpiration {
+
+  /**
+   * Weight of the latest interval in the moving average.
+   */
+  private static final double WEIGHT = 0.25;
+
+  /**
+   * (in seconds)
+   */
+  private final int min;
+
+  /**
+   * (in seconds)
+   */
+  private final int max;
+
+  private final ConcurrentMap<String, Namespace> namespaces = new ConcurrentHashMap<String, Namespace>();
+
+  /**
+   * @param min the shortest expiration, in seconds.
+   * @param max the longest expiration, in seconds.
+   */
+  public AdaptiveExpiration(int min, int max) {
+    this.min = min;
+    this.max = Math.max(min, max);
+  }
+
+  /**
+   * @param id the cache id.
+   * @return the expiration (in seconds) of the entries of the given cache id.
+   */
+  public int expiration(String id) {
+    return expiration(id, System.currentTimeMillis());
+  }
+
+  int expiration(String id, long now) {
+    Namespace namespace = namespace(id, now);
+    // a namespace not cleared for long is stable, whatever its history
+    double interval = Math.max(namespace.meanInterval, now - namespace.lastClear);
+    return (int) Math.max(min, Math.min(max, interval / 1000));
+  }
+
+  /**
+   * Records a clear of the given cache id.
+   *
+   * @param id the cache id.
+   */
+  public void cleared(String id) {
+    cleared(id, System.currentTimeMillis());
+  }
+
+  void cleared(String id, long now) {
+    Namespace namespace = namespace(id, now);
+    long interval = now - namespace.lastClear;
+    namespace.lastClear = now;
+    // concurrent clears may lose an update, it's just an estimate
+    namespace.meanInterval = namespace.meanInterval == 0 ? interval
+        : namespace.meanInterval + WEIGHT * (interval - namespace.meanInterval);
+  }
+
+  private Namespace namespace(String id, long now) {
+    Namespace namespace = namespaces.get(id);
+    if (namespace == null) {
+      Namespace newNamespace = new Namespace(now);
+      namespace = namespaces.putIfAbsent(id, newNamespace);
+      if (namespace == null) {
+        namespace = newNamespace;
+      }
+    }
+    return namespace;
+  }
+
+  private static final class Namespace {
+
+    volatile long lastClear;
+
+    /**
+     * (in milliseconds) 0 until the first clear.
+     */
+    volatile double meanInterval;
+
+    Namespace(long now) {
+      this.lastClear = now;
+    }
+
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a query result is worth writing to Memcached.
+ *
+ * A result is admitted once its key has been looked up often enough
+ * recently, or when it was expensive to produce: the time elapsed between
+ * the miss and the put is taken as the cost of the query. One-off cheap
+ * queries are not written, so they don't evict the useful entries nor cost
+ * a set plus a group update each.
+ */
+final class AdmissionPolicy {
+
+  private final FrequencySketch sketch;
+
+  private final int minFrequency;
+
+  /**
+   * (in nanoseconds)
+   */
+  private final long minCost;
+
+  /**
+   * When the misses not followed by a put yet happened.
+   */
+  private final ConcurrentMap<String, Long> missedAt = new ConcurrentHashMap<String, Long>();
+
+  private final int maxPending;
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param capacity the expected number of distinct keys.
+   * @param minFrequency the lookups above which a result is admitted.
+   * @param minCost the query time (in milliseconds) above which a result is admitted.
+   */
+  public AdmissionPolicy(int capacity, int minFrequency, int minCost) {
+    this.sketch = new FrequencySketch(capacity);
+    this.minFrequency = minFrequency;
+    this.minCost = TimeUnit.MILLISECONDS.toNanos(minCost);
+    this.maxPending = capacity;
+  }
+
+  /**
+   * Records a lookup of the given key.
+   *
+   * @param key the hashed key.
+   */
+  public void recordAccess(String key) {
+    sketch.increment(key);
+  }
+
+  /**
+   * Records a lookup of the given key that missed, the query is about to run.
+   *
+   * @param key the hashed key.
+   */
+  public void recordMiss(String key) {
+    if (missedAt.size() >= maxPending) {
+      // the queries that failed never put their result, forget them all
+      missedAt.clear();
+    }
+    missedAt.put(key, System.nanoTime());
+  }
+
+  /**
+   * Decides whether the result of the given key has to be written.
+   *
+   * @param key the hashed key.
+   * @return true if the result has to be written.
+   */
+  public boolean admit(String key) {
+    Long missed = missedAt.remove(key);
+    if (missed != null && System.nanoTime() - missed >= minCost) {
+      return true;
+    }
+    if (sketch.frequency(key) >= minFrequency) {
+      return true;
+    }
+    rejected.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @return how many results have not been written so far.
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Transactional buffer in front of a {@link MemcachedCache}, with the same
+ * contract as MyBatis {@code TransactionalCache}: entries are staged while the
+ * transaction runs and written on {@link #commit()}, discarded on
+ * {@link #rollback()}.
+ *
+ * Unlike {@code TransactionalCache}, staged entries are flushed with
+ * {@link MemcachedCache#putObjects(Map)}, so the commit latency doesn't grow
+ * with the number of cached queries. Misses are not written back as nulls,
+ * that is only needed to release the locks of a {@code BlockingCache}.
+ *
+ * Like {@code TransactionalCache}, instances are not thread safe and are
+ * meant to be bound to a single transaction.
+ */
+public final class BatchingTransactionalCache implements Cache {
+
+  private final MemcachedCache delegate;
+
+  private boolean clearOnCommit;
+
+  private final Map<Object, Object> entriesToAddOnCommit = new HashMap<Object, Object>();
+
+  public BatchingTransactionalCache(MemcachedCache delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getObject(Object key) {
+    if (clearOnCommit) {
+      return null;
+    }
+    return delegate.getObject(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return delegate.getReadWriteLock();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void putObject(Object key, Object object) {
+    entriesToAddOnCommit.put(key, object);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object removeObject(Object key) {
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    clearOnCommit = true;
+    entriesToAddOnCommit.clear();
+  }
+
+  /**
+   * Applies the staged changes to the delegate.
+   */
+  public void commit() {
+    if (clearOnCommit) {
+      delegate.clear();
+    }
+    delegate.putObjects(entriesToAddOnCommit);
+    reset();
+  }
+
+  /**
+   * Discards the staged changes.
+   */
+  public void rollback() {
+    reset();
+  }
+
+  private void reset() {
+    clearOnCommit = false;
+    entriesToAddOnCommit.clear();
+  }
+
+}
@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Striped pool of reusable byte buffers in a few size classes (4, 16, 64 and
+ * 256 KB), keeping at most one buffer per class and stripe so the retained
+ * memory is bounded whatever the number of threads; larger buffers are
+ * never pooled.
+ */
+final class BufferPool {
+
+  /**
+   * The pool shared by the serialization.
+   */
+  static final BufferPool SHARED = new BufferPool(Runtime.getRuntime().availableProcessors() * 2);
+
+  private static final int MIN_SIZE_SHIFT = 12;
+
+  private static final int CLASSES = 4;
+
+  /**
+   * The largest pooled buffer size.
+   */
+  static final int MAX_POOLED_SIZE = sizeOf(CLASSES - 1);
+
+  private final AtomicReferenceArray<byte[]> slots;
+
+  private final int stripeMask;
+
+  /**
+   * @param stripes the number of stripes, rounded up to a power of two.
+   */
+  public BufferPool(int stripes) {
+    int size = Integer.highestOneBit(Math.max(1, stripes) - 1) << 1;
+    this.stripeMask = Math.max(1, size) - 1;
+    this.slots = new AtomicReferenceArray<byte[]>((stripeMask + 1) * CLASSES);
+  }
+
+  /**
+   * Takes a buffer of at least the given size.
+   *
+   * @param minSize the min buffer size.
+   * @return a pooled buffer, or a new one.
+   */
+  public byte[] acquire(int minSize) {
+    int sizeClass = classOf(minSize);
+    if (sizeClass == CLASSES) {
+      return new byte[minSize];
+    }
+
+    byte[] buffer = slots.getAndSet(slotOf(sizeClass), null);
+    return buffer != null ? buffer : new byte[sizeOf(sizeClass)];
+  }
+
+  /**
+   * Gives a buffer back, it must not be used afterwards.
+   *
+   * @param buffer the buffer.
+   */
+  public void release(byte[] buffer) {
+    int sizeClass = classOf(buffer.length);
+    if (sizeClass < CLASSES && sizeOf(sizeClass) == buffer.length) {
+      slots.compareAndSet(slotOf(sizeClass), null, buffer);
+    }
+  }
+
+  private int slotOf(int sizeClass) {
+    return ((int) Thread.currentThread().getId() & stripeMask) * CLASSES + sizeClass;
+  }
+
+  private static int classOf(int size) {
+    for (int sizeClass = 0; sizeClass < CLASSES; sizeClass++) {
+      if (size <= sizeOf(sizeClass)) {
+        return sizeClass;
+      }
+    }
+    return CLASSES;
+  }
+
+  private static int sizeOf(int sizeClass) {
+    return 1 << (MIN_SIZE_SHIFT + 2 * sizeClass);
+  }
+
+}
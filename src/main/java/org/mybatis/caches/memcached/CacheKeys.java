@@ -0,0 +1,64 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+/**
+ * Reads the string form of the MyBatis {@code CacheKey}, which is
+ * {@code hashcode:checksum:statementId:offset:limit:sql:parameters...}.
+ */
+final class CacheKeys {
+
+  private CacheKeys() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * Splits a key in hashcode, checksum, statement id, offset, limit and the
+   * SQL followed by its parameters.
+   *
+   * @param key the MyBatis key.
+   * @return the key parts, null if the key is not a {@code CacheKey}.
+   */
+  public static String[] split(Object key) {
+    String[] parts = key.toString().split(":", 6);
+    if (parts.length == 6 && isNumber(parts[0]) && isNumber(parts[1])) {
+      return parts;
+    }
+    return null;
+  }
+
+  /**
+   * @param key the MyBatis key.
+   * @return the id of the statement the key was created for, null if the key is not a {@code CacheKey}.
+   */
+  public static String statementId(Object key) {
+    String[] parts = split(key);
+    return parts == null ? null : parts[2];
+  }
+
+  private static boolean isNumber(String value) {
+    if (value.isEmpty()) {
+      return false;
+    }
+    for (int i = value.charAt(0) == '-' ? 1 : 0; i < value.length(); i++) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
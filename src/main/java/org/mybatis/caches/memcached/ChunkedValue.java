@@ -0,0 +1,152 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A value too large for a single Memcached item, stored as numbered chunk
+ * items plus a small manifest under the value key.
+ *
+ * The chunk keys embed a random token, so a reader never mixes the chunks of
+ * two concurrent writes: it either gets all the chunks of the manifest it
+ * read, or misses.
+ */
+final class ChunkedValue {
+
+  /**
+   * Manifest marker, can't be confused with a Java serialization stream.
+   */
+  private static final int MAGIC = 0x4d43484b;
+
+  private static final int MANIFEST_LENGTH = 20;
+
+  private final String keyString;
+
+  private final int length;
+
+  private final int chunkSize;
+
+  private final long token;
+
+  private ChunkedValue(String keyString, int length, int chunkSize, long token) {
+    this.keyString = keyString;
+    this.length = length;
+    this.chunkSize = chunkSize;
+    this.token = token;
+  }
+
+  /**
+   * Splits a value in chunks.
+   *
+   * @param keyString the value key.
+   * @param data the value.
+   * @param chunkSize the max chunk size.
+   * @return the chunked value.
+   */
+  public static ChunkedValue of(String keyString, byte[] data, int chunkSize) {
+    return new ChunkedValue(keyString, data.length, chunkSize, ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+  }
+
+  /**
+   * Checks whether a stored value is a manifest; a plain value may look like
+   * one, so its sizes are checked too.
+   *
+   * @param data the stored value.
+   * @return true if it's a manifest.
+   */
+  public static boolean isManifest(byte[] data) {
+    if (data.length != MANIFEST_LENGTH) {
+      return false;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    int magic = buffer.getInt();
+    int length = buffer.getInt();
+    int chunkSize = buffer.getInt();
+    return magic == MAGIC && length >= 0 && chunkSize > 0;
+  }
+
+  /**
+   * Reads a manifest.
+   *
+   * @param keyString the value key.
+   * @param manifest the stored manifest.
+   * @return the chunked value.
+   */
+  public static ChunkedValue parse(String keyString, byte[] manifest) {
+    ByteBuffer buffer = ByteBuffer.wrap(manifest);
+    buffer.getInt();
+    return new ChunkedValue(keyString, buffer.getInt(), buffer.getInt(), buffer.getLong());
+  }
+
+  public byte[] manifest() {
+    return ByteBuffer.allocate(MANIFEST_LENGTH).putInt(MAGIC).putInt(length).putInt(chunkSize).putLong(token).array();
+  }
+
+  public String[] chunkKeys() {
+    String[] keys = new String[(int) ((length + (long) chunkSize - 1) / chunkSize)];
+    String prefix = keyString + '.' + Long.toHexString(token) + '.';
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = prefix + i;
+    }
+    return keys;
+  }
+
+  /**
+   * Extracts a chunk from the value.
+   *
+   * @param data the whole value.
+   * @param index the chunk index.
+   * @return the chunk.
+   */
+  public byte[] chunk(byte[] data, int index) {
+    int from = index * chunkSize;
+    byte[] chunk = new byte[Math.min(chunkSize, length - from)];
+    System.arraycopy(data, from, chunk, 0, chunk.length);
+    return chunk;
+  }
+
+  /**
+   * Rebuilds the value from its chunks.
+   *
+   * @param chunks the retrieved chunks, by key.
+   * @return the value, null if any chunk is missing.
+   */
+  public byte[] assemble(Map<String, Object> chunks) {
+    if (chunks == null) {
+      return null;
+    }
+
+    // all the chunks checked before allocating the value
+    String[] keys = chunkKeys();
+    for (int i = 0; i < keys.length; i++) {
+      Object chunk = chunks.get(keys[i]);
+      if (!(chunk instanceof byte[]) || ((byte[]) chunk).length != Math.min(chunkSize, length - i * chunkSize)) {
+        return null;
+      }
+    }
+
+    byte[] data = new byte[length];
+    for (int i = 0; i < keys.length; i++) {
+      byte[] chunk = (byte[]) chunks.get(keys[i]);
+      System.arraycopy(chunk, 0, data, i * chunkSize, chunk.length);
+    }
+    return data;
+  }
+
+}
@@ -0,0 +1,297 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free pool of the connections to a single server.
+ *
+ * A connection is checked out by flipping its own flag, so threads only
+ * contend when they pick the same connection; each thread starts looking
+ * from a different position, and with affinity first tries the connection
+ * it used last, which is usually free.
+ *
+ * A server that refuses a connection is marked dead for a while, doubling
+ * on every failure, so the operations routed to it fail fast rather than
+ * all paying the connect timeout.
+ */
+final class ConnectionPool {
+
+  /**
+   * How many times a waiting thread yields before parking.
+   */
+  private static final int SPINS = 64;
+
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private static final MemcachedConnection[] EMPTY = new MemcachedConnection[0];
+
+  private static final long MIN_DEAD_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+
+  private static final long MAX_DEAD_BACKOFF = TimeUnit.SECONDS.toNanos(60);
+
+  private final InetSocketAddress address;
+
+  private volatile int maxConn;
+
+  private final int socketTimeout;
+
+  private final int connectTimeout;
+
+  private final boolean nagle;
+
+  /**
+   * Whether the idle connections are checked before being reused.
+   */
+  private final boolean aliveCheck;
+
+  /**
+   * Whether a dead server is tried again once its backoff elapsed.
+   */
+  private final boolean failback;
+
+  private final AtomicReference<MemcachedConnection[]> connections = new AtomicReference<MemcachedConnection[]>(EMPTY);
+
+  /**
+   * Opened and opening connections.
+   */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * The connection each thread used last, null if affinity is disabled.
+   */
+  private final ThreadLocal<MemcachedConnection> affinity;
+
+  /**
+   * How long the server is left alone after the last failed connect (in
+   * nanoseconds), 0 if alive.
+   */
+  private volatile long deadBackoff;
+
+  private volatile long deadUntil;
+
+  private volatile boolean closed;
+
+  public ConnectionPool(InetSocketAddress address, int maxConn, int socketTimeout, int connectTimeout, boolean nagle,
+      boolean affinity) {
+    this(address, maxConn, socketTimeout, connectTimeout, nagle, affinity, false, true);
+  }
+
+  public ConnectionPool(InetSocketAddress address, int maxConn, int socketTimeout, int connectTimeout, boolean nagle,
+      boolean affinity, boolean aliveCheck, boolean failback) {
+    this.address = address;
+    this.maxConn = Math.max(1, maxConn);
+    this.socketTimeout = socketTimeout;
+    this.connectTimeout = connectTimeout;
+    this.nagle = nagle;
+    this.affinity = affinity ? new ThreadLocal<MemcachedConnection>() : null;
+    this.aliveCheck = aliveCheck;
+    this.failback = failback;
+  }
+
+  /**
+   * Checks out a connection, opening a new one if all are busy and the pool
+   * is not full, otherwise waiting up to the socket timeout.
+   *
+   * @return the connection, has to be released or discarded.
+   * @throws IOException if no connection is available.
+   */
+  public MemcachedConnection borrow() throws IOException {
+    if (affinity != null) {
+      MemcachedConnection last = affinity.get();
+      if (last != null && last.acquire()) {
+        if (last.isClosed()) {
+          // discarded since, i.e. busy for too long
+          affinity.remove();
+        } else if (checkAlive(last)) {
+          return last;
+        }
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(socketTimeout);
+    int start = (int) Thread.currentThread().getId();
+    int spins = 0;
+    while (!closed) {
+      MemcachedConnection[] current = connections.get();
+      for (int i = 0; i < current.length; i++) {
+        MemcachedConnection connection = current[((start + i) & Integer.MAX_VALUE) % current.length];
+        if (connection.acquire() && checkAlive(connection)) {
+          return remember(connection);
+        }
+      }
+
+      int opened = size.get();
+      if (opened < maxConn) {
+        if (isDead()) {
+          throw new IOException(address + " is marked dead, not connecting again yet");
+        }
+        if (size.compareAndSet(opened, opened + 1)) {
+          return remember(open());
+        }
+      }
+
+      if (System.nanoTime() - deadline > 0) {
+        throw new IOException("No connection to " + address + " available within " + socketTimeout + " ms");
+      }
+      if (++spins < SPINS) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(PARK_NANOS);
+      }
+    }
+    throw new IOException("The connections pool to " + address + " is closed");
+  }
+
+  /**
+   * Returns a healthy connection to the pool.
+   *
+   * @param connection the connection.
+   */
+  public void release(MemcachedConnection connection) {
+    if (size.get() > maxConn) {
+      // the pool shrunk while the connection was in use
+      discard(connection);
+      return;
+    }
+    connection.release();
+  }
+
+  /**
+   * Changes the max connections: the idle connections above the new max are
+   * closed right away, the busy ones once released.
+   *
+   * @param newMaxConn the new max connections.
+   */
+  public void resize(int newMaxConn) {
+    maxConn = Math.max(1, newMaxConn);
+    for (MemcachedConnection connection : connections.get()) {
+      if (size.get() <= maxConn) {
+        return;
+      }
+      if (connection.acquire()) {
+        discard(connection);
+      }
+    }
+  }
+
+  /**
+   * Closes a connection left in an unknown state.
+   *
+   * @param connection the connection.
+   */
+  public void discard(MemcachedConnection connection) {
+    MemcachedConnection[] current;
+    MemcachedConnection[] updated;
+    do {
+      current = connections.get();
+      int index = Arrays.asList(current).indexOf(connection);
+      if (index == -1) {
+        return;
+      }
+      updated = new MemcachedConnection[current.length - 1];
+      System.arraycopy(current, 0, updated, 0, index);
+      System.arraycopy(current, index + 1, updated, index, updated.length - index);
+    } while (!connections.compareAndSet(current, updated));
+
+    size.decrementAndGet();
+    connection.close();
+  }
+
+  /**
+   * Closes the connections idle for too long, and those busy for too long,
+   * most likely stuck; their owner finds them closed.
+   *
+   * @param maxIdle the max idle time (in nanoseconds), 0 if unbounded.
+   * @param maxBusy the max busy time (in nanoseconds), 0 if unbounded.
+   */
+  public void maintain(long maxIdle, long maxBusy) {
+    for (MemcachedConnection connection : connections.get()) {
+      if (connection.isInUse()) {
+        if (maxBusy > 0 && connection.sinceLastUse() > maxBusy) {
+          discard(connection);
+        }
+      } else if (maxIdle > 0 && connection.sinceLastUse() > maxIdle && connection.acquire()) {
+        discard(connection);
+      }
+    }
+  }
+
+  /**
+   * @return true if the server refused the last connection and its backoff
+   *         didn't elapse yet, or for good without failback.
+   */
+  public boolean isDead() {
+    return deadBackoff != 0 && (!failback || System.nanoTime() - deadUntil < 0);
+  }
+
+  public void close() {
+    closed = true;
+    for (MemcachedConnection connection : connections.getAndSet(EMPTY)) {
+      connection.close();
+    }
+  }
+
+  private MemcachedConnection open() throws IOException {
+    MemcachedConnection connection;
+    try {
+      connection = new MemcachedConnection(address, socketTimeout, connectTimeout, nagle);
+    } catch (IOException e) {
+      size.decrementAndGet();
+      long backoff = deadBackoff == 0 ? MIN_DEAD_BACKOFF : Math.min(MAX_DEAD_BACKOFF, deadBackoff * 2);
+      deadUntil = System.nanoTime() + backoff;
+      deadBackoff = backoff;
+      throw e;
+    }
+    deadBackoff = 0;
+    connection.acquire();
+
+    MemcachedConnection[] current;
+    MemcachedConnection[] updated;
+    do {
+      current = connections.get();
+      updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = connection;
+    } while (!connections.compareAndSet(current, updated));
+    return connection;
+  }
+
+  /**
+   * Checks a connection just taken, when asked to; a dead one is discarded.
+   */
+  private boolean checkAlive(MemcachedConnection connection) {
+    if (!aliveCheck || connection.isAlive()) {
+      return true;
+    }
+    discard(connection);
+    return false;
+  }
+
+  private MemcachedConnection remember(MemcachedConnection connection) {
+    if (affinity != null) {
+      affinity.set(connection);
+    }
+    return connection;
+  }
+
+}
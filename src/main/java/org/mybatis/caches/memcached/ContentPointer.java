@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * What is stored under a result key when the result is deduplicated: the key
+ * of the item holding the result, named after the hash of its content, so
+ * identical results are stored once whatever their keys.
+ */
+final class ContentPointer {
+
+  /**
+   * Pointer marker, can't be confused with a Java serialization stream.
+   */
+  private static final int MAGIC = 0x4d434e54;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private ContentPointer() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * @param data a serialized result.
+   * @return the name of its content.
+   */
+  public static String contentName(byte[] data) {
+    return StringUtils.sha256Base64Url(data);
+  }
+
+  /**
+   * @param contentKey the key of the item holding the result.
+   * @return the pointer.
+   */
+  public static byte[] encode(String contentKey) {
+    byte[] key = contentKey.getBytes(UTF_8);
+    return ByteBuffer.allocate(4 + key.length).putInt(MAGIC).put(key).array();
+  }
+
+  /**
+   * Checks whether a stored value is a pointer.
+   *
+   * @param data the stored value.
+   * @return true if it's a pointer.
+   */
+  public static boolean isPointer(byte[] data) {
+    return data.length > 4 && ByteBuffer.wrap(data).getInt() == MAGIC;
+  }
+
+  /**
+   * @param pointer the stored pointer.
+   * @return the key of the item holding the result.
+   */
+  public static String decode(byte[] pointer) {
+    return new String(pointer, 4, pointer.length - 4, UTF_8);
+  }
+
+}
@@ -0,0 +1,481 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Local tier that keeps serialized values in memory mapped segment files,
+ * so they survive a restart.
+ *
+ * Segments are filled in turn and, once all of them are full, the oldest one
+ * is recycled. Every cache id has a generation, bumped by {@link #clear(String)},
+ * and the entries written under an older generation are not served anymore.
+ * Other nodes can't invalidate this tier, the TTL bounds how stale a hit can be.
+ *
+ * Record layout: {@code length(int) writtenAt(long) generation(long) id(short+bytes)
+ * key(short+bytes) value(int+bytes)}; a zero length marks the end of a segment.
+ * A removal is written as a tombstone, a record with a value length of -1, so
+ * the removed entry doesn't come back on restart.
+ */
+final class DiskTier {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Segment file format marker.
+   */
+  private static final int MAGIC = 0x4d4d5431;
+
+  /**
+   * {@code magic(int) sequence(long)}.
+   */
+  private static final int SEGMENT_HEADER_SIZE = 12;
+
+  private static final String GENERATIONS_FILE = "generations.properties";
+
+  /**
+   * The value length of a tombstone.
+   */
+  private static final int TOMBSTONE = -1;
+
+  private final File directory;
+
+  private final int segmentSize;
+
+  /**
+   * Entries time to live (in milliseconds).
+   */
+  private final long ttl;
+
+  private final Segment[] segments;
+
+  /**
+   * key -> where the latest value has been written.
+   */
+  private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+  private final ConcurrentMap<String, Long> generations = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * Serializes the writes to the segments.
+   */
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /**
+   * Serializes the generation updates.
+   */
+  private final ReentrantLock generationsLock = new ReentrantLock();
+
+  /**
+   * The segment currently written, guarded by {@link #writeLock}.
+   */
+  private Segment active;
+
+  public DiskTier(File directory, int segmentSize, int segmentsCount, long ttl) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Impossible to create directory '" + directory + "'");
+    }
+
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.ttl = ttl;
+    this.segments = new Segment[segmentsCount];
+
+    loadGenerations();
+
+    for (int i = 0; i < segmentsCount; i++) {
+      segments[i] = new Segment(i, new File(directory, "segment-" + i + ".dat"), segmentSize);
+    }
+
+    // replay the segments from the oldest one, so the latest values win
+    List<Segment> ordered = new ArrayList<Segment>();
+    Collections.addAll(ordered, segments);
+    Collections.sort(ordered, new Comparator<Segment>() {
+      @Override
+      public int compare(Segment o1, Segment o2) {
+        return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+      }
+    });
+    for (Segment segment : ordered) {
+      segment.replay();
+    }
+
+    active = ordered.get(ordered.size() - 1);
+    if (active.sequence == 0) {
+      active.reset(1);
+    }
+  }
+
+  public byte[] get(String id, String key) {
+    Location location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+
+    if (location.generation != generation(id) || location.writtenAt + ttl < System.currentTimeMillis()) {
+      index.remove(key, location);
+      return null;
+    }
+
+    byte[] value = location.segment.read(location, key);
+    if (value == null) {
+      // recycled meanwhile
+      index.remove(key, location);
+    }
+    return value;
+  }
+
+  public void put(String id, String key, byte[] value) {
+    write(id, key, value);
+  }
+
+  /**
+   * Removes an entry, for good: the removal is recorded in the segments.
+   *
+   * @param id the cache id.
+   * @param key the entry key.
+   */
+  public void remove(String id, String key) {
+    if (index.remove(key) != null) {
+      write(id, key, null);
+    }
+  }
+
+  /**
+   * Appends a record to the active segment, recycling the oldest one if full.
+   *
+   * @param value the value, null for a tombstone.
+   */
+  private void write(String id, String key, byte[] value) {
+    byte[] idBytes = id.getBytes(UTF_8);
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int length = 8 + 8 + 2 + idBytes.length + 2 + keyBytes.length + 4 + (value == null ? 0 : value.length);
+    if (SEGMENT_HEADER_SIZE + 4 + length + 4 > segmentSize) {
+      // too big to ever fit
+      return;
+    }
+
+    long generation = generation(id);
+    long writtenAt = System.currentTimeMillis();
+
+    writeLock.lock();
+    try {
+      if (!active.fits(length)) {
+        Segment next = segments[(active.number + 1) % segments.length];
+        dropIndexEntries(next);
+        next.reset(active.sequence + 1);
+        active = next;
+      }
+
+      int offset = active.append(length, writtenAt, generation, idBytes, keyBytes, value);
+      if (value == null) {
+        // a put racing with the removal may have indexed its value meanwhile
+        index.remove(key);
+      } else {
+        index.put(key, new Location(active, active.sequence, offset, generation, writtenAt));
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Invalidates all the entries of the given cache id.
+   *
+   * @param id the cache id.
+   */
+  public void clear(String id) {
+    generationsLock.lock();
+    try {
+      generations.put(id, generation(id) + 1);
+      storeGenerations();
+    } catch (IOException e) {
+      throw new CacheException("Impossible to store the local tier generations, see nested exceptions", e);
+    } finally {
+      generationsLock.unlock();
+    }
+  }
+
+  private long generation(String id) {
+    Long generation = generations.get(id);
+    return generation == null ? 0L : generation.longValue();
+  }
+
+  private void dropIndexEntries(Segment segment) {
+    Iterator<Location> locations = index.values().iterator();
+    while (locations.hasNext()) {
+      if (locations.next().segment == segment) {
+        locations.remove();
+      }
+    }
+  }
+
+  private void loadGenerations() throws IOException {
+    File file = new File(directory, GENERATIONS_FILE);
+    if (!file.isFile()) {
+      return;
+    }
+
+    Properties properties = new Properties();
+    InputStream input = new FileInputStream(file);
+    try {
+      properties.load(input);
+    } finally {
+      input.close();
+    }
+    for (String id : properties.stringPropertyNames()) {
+      generations.put(id, Long.valueOf(properties.getProperty(id)));
+    }
+  }
+
+  private void storeGenerations() throws IOException {
+    Properties properties = new Properties();
+    for (Map.Entry<String, Long> generation : generations.entrySet()) {
+      properties.setProperty(generation.getKey(), generation.getValue().toString());
+    }
+
+    File temp = new File(directory, GENERATIONS_FILE + ".tmp");
+    OutputStream output = new FileOutputStream(temp);
+    try {
+      properties.store(output, null);
+    } finally {
+      output.close();
+    }
+
+    File file = new File(directory, GENERATIONS_FILE);
+    if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+      throw new IOException("Impossible to replace '" + file + "'");
+    }
+  }
+
+  private static final class Location {
+
+    final Segment segment;
+
+    /**
+     * The segment sequence when written, detects recycled segments.
+     */
+    final long sequence;
+
+    final int offset;
+
+    final long generation;
+
+    final long writtenAt;
+
+    Location(Segment segment, long sequence, int offset, long generation, long writtenAt) {
+      this.segment = segment;
+      this.sequence = sequence;
+      this.offset = offset;
+      this.generation = generation;
+      this.writtenAt = writtenAt;
+    }
+
+  }
+
+  private final class Segment {
+
+    final int number;
+
+    final MappedByteBuffer buffer;
+
+    /**
+     * Increases every time the segment is recycled, 0 if never written.
+     */
+    volatile long sequence;
+
+    /**
+     * Where the next record goes, guarded by the tier write lock.
+     */
+    int position;
+
+    Segment(int number, File file, int size) throws IOException {
+      this.number = number;
+
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        if (raf.length() != size) {
+          raf.setLength(0);
+          raf.setLength(size);
+        }
+        FileChannel channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        // the mapping stays valid once the file is closed
+        raf.close();
+      }
+
+      if (buffer.getInt(0) == MAGIC) {
+        sequence = buffer.getLong(4);
+      } else {
+        sequence = 0;
+      }
+      position = SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Indexes the records found in this segment.
+     */
+    void replay() {
+      if (sequence == 0) {
+        return;
+      }
+
+      long now = System.currentTimeMillis();
+      ByteBuffer view = buffer.duplicate();
+      int offset = SEGMENT_HEADER_SIZE;
+      while (offset + 4 <= segmentSize) {
+        int length = view.getInt(offset);
+        if (length <= 0 || offset + 4 + length > segmentSize) {
+          break;
+        }
+
+        long writtenAt;
+        long generation;
+        String id;
+        String key;
+        int valueLength;
+        try {
+          view.position(offset + 4);
+          writtenAt = view.getLong();
+          generation = view.getLong();
+          id = readString(view, view.getShort());
+          key = readString(view, view.getShort());
+          valueLength = view.getInt();
+        } catch (RuntimeException e) {
+          // torn record
+          break;
+        }
+
+        if (valueLength != TOMBSTONE && generation == generation(id) && writtenAt + ttl >= now) {
+          index.put(key, new Location(this, sequence, offset, generation, writtenAt));
+        } else {
+          index.remove(key);
+        }
+        offset += 4 + length;
+      }
+      position = offset;
+    }
+
+    boolean fits(int length) {
+      // keep room for the end marker
+      return position + 4 + length + 4 <= segmentSize;
+    }
+
+    /**
+     * Empties this segment so it can be written again.
+     */
+    void reset(long newSequence) {
+      buffer.putInt(SEGMENT_HEADER_SIZE, 0);
+      buffer.putLong(4, newSequence);
+      buffer.putInt(0, MAGIC);
+      sequence = newSequence;
+      position = SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * @param value the value, null for a tombstone.
+     */
+    int append(int length, long writtenAt, long generation, byte[] id, byte[] key, byte[] value) {
+      int offset = position;
+
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset + 4);
+      view.putLong(writtenAt);
+      view.putLong(generation);
+      view.putShort((short) id.length);
+      view.put(id);
+      view.putShort((short) key.length);
+      view.put(key);
+      if (value == null) {
+        view.putInt(TOMBSTONE);
+      } else {
+        view.putInt(value.length);
+        view.put(value);
+      }
+      view.putInt(0);
+
+      // publish the record only once completely written
+      buffer.putInt(offset, length);
+      position = offset + 4 + length;
+      return offset;
+    }
+
+    byte[] read(Location location, String key) {
+      String storedKey;
+      byte[] value;
+      try {
+        ByteBuffer view = buffer.duplicate();
+        view.position(location.offset + 4 + 8 + 8);
+        readBytes(view, view.getShort());
+        storedKey = readString(view, view.getShort());
+        value = readBytes(view, view.getInt());
+      } catch (RuntimeException e) {
+        // overwritten while reading
+        return null;
+      }
+
+      // the segment may have been recycled while reading
+      if (sequence != location.sequence || !key.equals(storedKey)) {
+        return null;
+      }
+      return value;
+    }
+
+  }
+
+  private static String readString(ByteBuffer view, int length) {
+    return new String(readBytes(view, length), UTF_8);
+  }
+
+  /**
+   * Reads a field of the given length, checked first as it comes from a
+   * record that may be torn or recycled.
+   */
+  private static byte[] readBytes(ByteBuffer view, int length) {
+    if (length < 0 || length > view.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    view.get(bytes);
+    return bytes;
+  }
+
+}
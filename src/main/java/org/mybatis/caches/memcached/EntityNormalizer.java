@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+/**
+ * Splits the result lists of identifiable entities, so an entity appearing in
+ * many cached lists is stored just once.
+ *
+ * A normalized list is stored as the keys of its entities, each entity under
+ * its own key in the namespace of the list; it is reassembled on read and is
+ * a miss if any of its entities is missing. Entities are identified by the
+ * statement that read them, as another one may read other properties or
+ * associations of the same rows, then by their class and id property; maps
+ * are never normalized since their class can't tell what they hold.
+ */
+final class EntityNormalizer {
+
+  /**
+   * The cache ids whose results are normalized.
+   */
+  private final Set<String> ids;
+
+  /**
+   * The property identifying an entity.
+   */
+  private final String idProperty;
+
+  /**
+   * @param ids the cache ids whose results are normalized.
+   * @param idProperty the property identifying an entity.
+   */
+  public EntityNormalizer(String[] ids, String idProperty) {
+    this.ids = new HashSet<String>(Arrays.asList(ids));
+    this.ids.remove("");
+    this.idProperty = idProperty;
+  }
+
+  /**
+   * @return true if some cache ids are normalized.
+   */
+  public boolean isEnabled() {
+    return !ids.isEmpty();
+  }
+
+  /**
+   * @param id the cache id.
+   * @return true if the results of the given cache are normalized.
+   */
+  public boolean isNormalized(String id) {
+    return ids.contains(id);
+  }
+
+  /**
+   * Identifies the entities of a result.
+   *
+   * @param value the result.
+   * @param id the cache id.
+   * @return the references of the list elements, as {@code className:id}, null if the result is not normalized.
+   */
+  public String[] references(Object value, String id) {
+    if (!(value instanceof List) || !isNormalized(id)) {
+      return null;
+    }
+
+    List<?> list = (List<?>) value;
+    if (list.isEmpty()) {
+      return null;
+    }
+    String[] references = new String[list.size()];
+    int i = 0;
+    for (Object element : list) {
+      if (element == null || element instanceof Map || !(element instanceof Serializable)) {
+        return null;
+      }
+      MetaObject metaObject = SystemMetaObject.forObject(element);
+      if (!metaObject.hasGetter(idProperty)) {
+        return null;
+      }
+      Object entityId = metaObject.getValue(idProperty);
+      if (entityId == null) {
+        return null;
+      }
+      references[i++] = element.getClass().getName() + ":" + entityId;
+    }
+    return references;
+  }
+
+  /**
+   * What is stored in place of a normalized list.
+   */
+  static final class EntityList implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] keys;
+
+    EntityList(String[] keys) {
+      this.keys = keys;
+    }
+
+    /**
+     * @return the keys of the list elements, in order; an entity appearing twice has the same key twice.
+     */
+    public String[] getKeys() {
+      return keys;
+    }
+
+  }
+
+}
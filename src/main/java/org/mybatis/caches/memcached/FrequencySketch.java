@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min sketch of 4 bits counters estimating how often the keys have been
+ * seen recently, in a fixed amount of memory whatever the number of keys.
+ *
+ * All the counters are halved once the sketch has been incremented 10 times
+ * its capacity, so the estimates follow what is popular now (TinyLFU aging).
+ *
+ * Counters are updated with CAS, so the hottest keys, the most contended
+ * ones, are never under-counted.
+ */
+final class FrequencySketch {
+
+  private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+      0xcbf29ce484222325L };
+
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private static final long MAX_COUNT = 0xfL;
+
+  private final AtomicLongArray table;
+
+  private final int tableMask;
+
+  private final int sampleSize;
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * @param capacity the expected number of distinct keys.
+   */
+  public FrequencySketch(int capacity) {
+    int length = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 30)) - 1) << 1;
+    this.table = new AtomicLongArray(length);
+    this.tableMask = length - 1;
+    this.sampleSize = 10 * Math.max(16, capacity);
+  }
+
+  /**
+   * Records an access to the given key.
+   *
+   * @param key the key.
+   */
+  public void increment(String key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    // a single thread reaches the sample size, the others keep counting meanwhile
+    if (added && size.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Estimates how many times the given key has been seen recently.
+   *
+   * @param key the key.
+   * @return the estimated frequency, at most 15.
+   */
+  public int frequency(String key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int offset = (start + i) << 2;
+      int count = (int) ((table.get(indexOf(hash, i)) >>> offset) & MAX_COUNT);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = MAX_COUNT << offset;
+    while (true) {
+      long current = table.get(index);
+      if ((current & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(index, current, current + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length(); i++) {
+      long current;
+      do {
+        current = table.get(i);
+      } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+    }
+    size.addAndGet(-(sampleSize - (sampleSize >>> 1)));
+  }
+
+  private int indexOf(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return (int) h & tableMask;
+  }
+
+  /**
+   * The keys are already digests, but their hash code is not.
+   */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keys stored in a namespace, along with their expiration, so that the
+ * members already expired can be dropped rather than growing the group until
+ * it no longer fits in a Memcached item.
+ *
+ * Members are kept in insertion order, the oldest first.
+ */
+final class GroupIndex extends AbstractSet<String> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The expiration time of each member, in milliseconds; 0 if it never expires.
+   */
+  private transient LinkedHashMap<String, Long> members = new LinkedHashMap<String, Long>();
+
+  /**
+   * Reads a stored group.
+   *
+   * @param stored the stored group, may be a set of keys written by a previous version, or null.
+   * @return the group index.
+   */
+  @SuppressWarnings("unchecked")
+  public static GroupIndex of(Object stored) {
+    if (stored instanceof GroupIndex) {
+      return (GroupIndex) stored;
+    }
+    GroupIndex index = new GroupIndex();
+    if (stored instanceof Collection) {
+      // their expiration is unknown, only compaction can tell they are gone
+      for (String key : (Collection<String>) stored) {
+        index.add(key, 0);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Adds a member, or refreshes it as the most recent one.
+   *
+   * @param key the member key.
+   * @param expiresAt when it expires, in milliseconds; 0 if never.
+   */
+  public void add(String key, long expiresAt) {
+    members.remove(key);
+    members.put(key, expiresAt);
+  }
+
+  /**
+   * Removes the members expired at the given time.
+   *
+   * @param now the current time, in milliseconds.
+   * @return how many members were removed.
+   */
+  public int prune(long now) {
+    int pruned = 0;
+    Iterator<Long> iterator = members.values().iterator();
+    while (iterator.hasNext()) {
+      long expiresAt = iterator.next();
+      if (expiresAt != 0 && expiresAt <= now) {
+        iterator.remove();
+        pruned++;
+      }
+    }
+    return pruned;
+  }
+
+  /**
+   * Removes the oldest members above the given size.
+   *
+   * @param maxSize the max members, 0 if unbounded.
+   * @return the removed members, that must be deleted as the group no longer tracks them.
+   */
+  public List<String> trim(int maxSize) {
+    if (maxSize <= 0 || members.size() <= maxSize) {
+      return Collections.emptyList();
+    }
+    List<String> trimmed = new ArrayList<String>(members.size() - maxSize);
+    Iterator<String> iterator = members.keySet().iterator();
+    while (members.size() > maxSize) {
+      trimmed.add(iterator.next());
+      iterator.remove();
+    }
+    return trimmed;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return members.keySet().iterator();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() {
+    return members.size();
+  }
+
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    output.defaultWriteObject();
+    output.writeInt(members.size());
+    for (Map.Entry<String, Long> member : members.entrySet()) {
+      output.writeUTF(member.getKey());
+      output.writeLong(member.getValue());
+    }
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    input.defaultReadObject();
+    int size = input.readInt();
+    members = new LinkedHashMap<String, Long>(Math.max(16, (int) (size / 0.75f) + 1));
+    for (int i = 0; i < size; i++) {
+      members.put(input.readUTF(), input.readLong());
+    }
+  }
+
+}
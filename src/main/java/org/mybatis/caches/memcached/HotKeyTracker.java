@@ -0,0 +1,209 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the accesses to the cache keys, per cache id, and persists the most
+ * accessed ones to a local file so they can be prefetched after a restart.
+ *
+ * Counters are halved on every snapshot, so the snapshot follows what is hot
+ * now rather than what has been hot since startup.
+ */
+final class HotKeyTracker {
+
+  /**
+   * Snapshot file format marker.
+   */
+  private static final int MAGIC = 0x484b5331;
+
+  /**
+   * Max keys per cache id written in the snapshot.
+   */
+  private final int capacity;
+
+  /**
+   * The snapshot file.
+   */
+  private final File file;
+
+  private final ConcurrentMap<String, ConcurrentMap<String, AtomicInteger>> counters = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicInteger>>();
+
+  public HotKeyTracker(int capacity, File file) {
+    this.capacity = capacity;
+    this.file = file;
+  }
+
+  /**
+   * Records an access to the given key.
+   *
+   * @param id the cache id.
+   * @param key the hashed key.
+   */
+  public void record(String id, String key) {
+    ConcurrentMap<String, AtomicInteger> keys = counters.get(id);
+    if (keys == null) {
+      ConcurrentMap<String, AtomicInteger> newKeys = new ConcurrentHashMap<String, AtomicInteger>();
+      keys = counters.putIfAbsent(id, newKeys);
+      if (keys == null) {
+        keys = newKeys;
+      }
+    }
+
+    AtomicInteger counter = keys.get(key);
+    if (counter == null) {
+      // don't track new keys until the next snapshot makes room for them
+      if (keys.size() >= capacity * 4) {
+        return;
+      }
+      AtomicInteger newCounter = new AtomicInteger();
+      counter = keys.putIfAbsent(key, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  /**
+   * Collects the hottest keys per cache id and decays the counters.
+   *
+   * @return the hottest keys, most accessed first.
+   */
+  public Map<String, List<String>> hottest() {
+    Map<String, List<String>> hottest = new LinkedHashMap<String, List<String>>();
+
+    for (Map.Entry<String, ConcurrentMap<String, AtomicInteger>> region : counters.entrySet()) {
+      List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>();
+      Iterator<Map.Entry<String, AtomicInteger>> iterator = region.getValue().entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, AtomicInteger> counter = iterator.next();
+        int count = counter.getValue().get();
+        entries.add(new AbstractMap.SimpleEntry<String, Integer>(counter.getKey(), count));
+        if (count / 2 == 0) {
+          iterator.remove();
+        } else {
+          counter.getValue().addAndGet(-(count - count / 2));
+        }
+      }
+
+      Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+          return o2.getValue().compareTo(o1.getValue());
+        }
+      });
+
+      List<String> keys = new ArrayList<String>(Math.min(capacity, entries.size()));
+      for (Map.Entry<String, Integer> entry : entries) {
+        if (keys.size() == capacity) {
+          break;
+        }
+        keys.add(entry.getKey());
+      }
+      if (!keys.isEmpty()) {
+        hottest.put(region.getKey(), keys);
+      }
+    }
+
+    return hottest;
+  }
+
+  /**
+   * Writes the hottest keys to the snapshot file, replacing the previous one.
+   *
+   * @throws IOException if the file can't be written.
+   */
+  public void snapshot() throws IOException {
+    Map<String, List<String>> hottest = hottest();
+
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(hottest.size());
+      for (Map.Entry<String, List<String>> region : hottest.entrySet()) {
+        output.writeUTF(region.getKey());
+        output.writeInt(region.getValue().size());
+        for (String key : region.getValue()) {
+          output.writeUTF(key);
+        }
+      }
+    } finally {
+      output.close();
+    }
+
+    if (!temp.renameTo(file)) {
+      // some platforms don't replace an existing file on rename
+      if (!file.delete() || !temp.renameTo(file)) {
+        throw new IOException("Impossible to replace hot keys snapshot '" + file + "'");
+      }
+    }
+  }
+
+  /**
+   * Reads the last written snapshot.
+   *
+   * @return the hottest keys per cache id, empty if no snapshot is available.
+   * @throws IOException if the file can't be read.
+   */
+  public Map<String, List<String>> load() throws IOException {
+    Map<String, List<String>> hottest = new LinkedHashMap<String, List<String>>();
+    if (!file.isFile()) {
+      return hottest;
+    }
+
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("File '" + file + "' is not a hot keys snapshot");
+      }
+      int regions = input.readInt();
+      for (int i = 0; i < regions; i++) {
+        String id = input.readUTF();
+        int size = input.readInt();
+        List<String> keys = new ArrayList<String>(size);
+        for (int j = 0; j < size; j++) {
+          keys.add(input.readUTF());
+        }
+        hottest.put(id, keys);
+      }
+    } finally {
+      input.close();
+    }
+    return hottest;
+  }
+
+}
@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+/**
+ * How the digest of the MyBatis object key is written in the Memcached key.
+ */
+enum KeyFormat {
+
+  /**
+   * Lowercase hex, two chars per digest byte.
+   */
+  HEX {
+    @Override
+    String digest(String data, int length) {
+      return StringUtils.sha1Hex(data, length);
+    }
+  },
+
+  /**
+   * Unpadded base64url, four chars every three digest bytes.
+   */
+  BASE64 {
+    @Override
+    String digest(String data, int length) {
+      return StringUtils.sha1Base64Url(data, length);
+    }
+  };
+
+  /**
+   * Digests the given data.
+   *
+   * @param data the data has to be digested.
+   * @param length how many digest bytes have to be kept.
+   * @return the encoded digest.
+   */
+  abstract String digest(String data, int length);
+
+}
@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+/**
+ * Setter from String to KeyFormat representation.
+ */
+final class KeyFormatSetter extends AbstractPropertySetter<KeyFormat> {
+
+  /**
+   * Instantiates a String to KeyFormat setter.
+   */
+  public KeyFormatSetter() {
+    super("org.mybatis.caches.memcached.keyformat", "keyFormat", KeyFormat.HEX);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected KeyFormat convert(String property) throws Exception {
+    return KeyFormat.valueOf(property.toUpperCase());
+  }
+
+}
@@ -15,6 +15,8 @@
  */
 package org.mybatis.caches.memcached;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -22,11 +24,32 @@ import org.apache.ibatis.cache.Cache;
 /**
  * The Memcached-based Cache implementation.
  *
+ * Besides the blocking {@link Cache} methods, the cache can be used outside
+ * MyBatis through its {@code *Async} methods, that don't block the caller so
+ * several lookups can be performed in parallel.
+ *
  * @author Simone Tripodi
  */
 public final class MemcachedCache implements Cache {
 
-  private static final MemcachedClientWrapper MEMCACHED_CLIENT = new MemcachedClientWrapper();
+  /**
+   * The client is created on first use rather than when MyBatis loads the
+   * mappers.
+   */
+  private static final class ClientHolder {
+
+    static final MemcachedClientWrapper MEMCACHED_CLIENT = new MemcachedClientWrapper();
+
+  }
+
+  /**
+   * Returns the diagnostics of the client shared by all the Memcached caches.
+   *
+   * @return the client diagnostics.
+   */
+  public static MemcachedDiagnostics getDiagnostics() {
+    return ClientHolder.MEMCACHED_CLIENT.getDiagnostics();
+  }
 
   /**
    * The {@link ReadWriteLock}.
@@ -52,7 +75,7 @@ public final class MemcachedCache implements Cache {
    */
   @Override
   public void clear() {
-    MEMCACHED_CLIENT.removeGroup(this.id);
+    ClientHolder.MEMCACHED_CLIENT.removeGroup(this.id);
   }
 
   /**
@@ -68,7 +91,7 @@ public final class MemcachedCache implements Cache {
    */
   @Override
   public Object getObject(Object key) {
-    return MEMCACHED_CLIENT.getObject(key);
+    return ClientHolder.MEMCACHED_CLIENT.getObject(key, this.id);
   }
 
   /**
@@ -92,7 +115,17 @@ public final class MemcachedCache implements Cache {
    */
   @Override
   public void putObject(Object key, Object value) {
-    MEMCACHED_CLIENT.putObject(key, value, this.id);
+    ClientHolder.MEMCACHED_CLIENT.putObject(key, value, this.id);
+  }
+
+  /**
+   * Stores several objects at once, paying a single group update for all of
+   * them rather than one per object.
+   *
+   * @param entries the objects have to be stored.
+   */
+  public void putObjects(Map<Object, Object> entries) {
+    ClientHolder.MEMCACHED_CLIENT.putObjects(entries, this.id);
   }
 
   /**
@@ -100,7 +133,47 @@ public final class MemcachedCache implements Cache {
    */
   @Override
   public Object removeObject(Object key) {
-    return MEMCACHED_CLIENT.removeObject(key);
+    return ClientHolder.MEMCACHED_CLIENT.removeObject(key, this.id);
+  }
+
+  /**
+   * Non blocking version of {@link #getObject(Object)}.
+   *
+   * @param key the key.
+   * @return the cached value, completed with null if not found.
+   */
+  public CompletableFuture<Object> getObjectAsync(Object key) {
+    return ClientHolder.MEMCACHED_CLIENT.getObjectAsync(key, this.id);
+  }
+
+  /**
+   * Non blocking version of {@link #putObject(Object, Object)}.
+   *
+   * @param key the key.
+   * @param value the value.
+   * @return completed once the value is stored.
+   */
+  public CompletableFuture<Void> putObjectAsync(Object key, Object value) {
+    return ClientHolder.MEMCACHED_CLIENT.putObjectAsync(key, value, this.id);
+  }
+
+  /**
+   * Non blocking version of {@link #removeObject(Object)}.
+   *
+   * @param key the key.
+   * @return the removed value, completed with null if not found.
+   */
+  public CompletableFuture<Object> removeObjectAsync(Object key) {
+    return ClientHolder.MEMCACHED_CLIENT.removeObjectAsync(key, this.id);
+  }
+
+  /**
+   * Non blocking version of {@link #clear()}.
+   *
+   * @return completed once the cache is cleared.
+   */
+  public CompletableFuture<Void> clearAsync() {
+    return ClientHolder.MEMCACHED_CLIENT.removeGroupAsync(this.id);
   }
 
 }
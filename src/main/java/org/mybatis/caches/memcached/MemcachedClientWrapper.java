@@ -15,19 +15,43 @@
  */
 package org.mybatis.caches.memcached;
 
-import java.io.Serializable;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.ObjectName;
 
 import org.apache.ibatis.cache.CacheException;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
-import com.schooner.MemCached.BinaryClient;
-import com.schooner.MemCached.MemcachedItem;
-import com.whalin.MemCached.MemCachedClient;
-import com.whalin.MemCached.SockIOPool;
 
 /**
  * @author Simone Tripodi
@@ -39,29 +63,197 @@ final class MemcachedClientWrapper {
      */
     private static final Log LOG = LogFactory.getLog(MemcachedCache.class);
 
+    /**
+     * Max keys fetched by a single multi-get while prefetching.
+     */
+    private static final int PREFETCH_BATCH_SIZE = 100;
+
+    /**
+     * Placeholder stored for the recent misses.
+     */
+    private static final byte[] MISS = new byte[0];
+
+    /**
+     * Retrieved by the reader elected to refresh an entry: a miss for it
+     * alone, neither remembered as a miss nor counted as one.
+     */
+    private static final Object ELECTED = new Object();
+
+    /**
+     * Max misses whose tag versions are kept until their result is written.
+     */
+    private static final int TAGGED_MISSES = 100000;
+
+    /**
+     * Max statements whose cost is accounted separately.
+     */
+    private static final int ACCOUNTED_STATEMENTS = 1000;
+
+    /**
+     * Separates the cache id from the entity reference in the entity keys.
+     */
+    private static final String ENTITY_SEPARATOR = "#entity:";
+
+    /**
+     * Prefix of the keys of the deduplicated results.
+     */
+    private static final String CONTENT_PREFIX = "#content:";
+
+    /**
+     * The max pause after the first optimistic lock failure on a group, in nanoseconds.
+     */
+    private static final long GROUP_RETRY_BACKOFF = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * The delays between the background start attempts, in milliseconds.
+     */
+    private static final long MIN_START_RETRY_DELAY = 1000;
+
+    private static final long MAX_START_RETRY_DELAY = 60 * 1000;
+
     private final MemcachedConfiguration configuration;
 
-    private final MemCachedClient client;
-
-    static {
-        MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
-        SockIOPool pool = SockIOPool.getInstance();
-        pool.setServers(config.getServers());
-        pool.setInitConn(config.getInitConn());
-        pool.setMinConn(config.getMinConn());
-        pool.setMaxConn(config.getMaxConn());
-        pool.setMaxIdle(config.getMaxIdle());
-        pool.setMaxBusyTime(config.getMaxBusyTime());
-        pool.setMaintSleep(config.getMaintSleep());
-        pool.setSocketTO(config.getSocketTO());
-        pool.setSocketConnectTO(config.getSocketConnectTO());
-        pool.setNagle(config.isNagle());
-        pool.setFailback(config.isFailback());
-        pool.setFailover(config.isFailover());
-        pool.setHashingAlg(SockIOPool.NEW_COMPAT_HASH);
-        pool.setAliveCheck(config.isAliveCheck());
-        pool.initialize();
-    }
+    /**
+     * Talks to the servers over the current connections pool, replaced when
+     * the pool is.
+     */
+    private volatile MemcachedTransport client;
+
+    /**
+     * The configuration the current pool was created with.
+     */
+    private volatile MemcachedConfiguration poolConfiguration;
+
+    /**
+     * The current per server max connections.
+     */
+    private volatile int maxConn;
+
+    /**
+     * The replaced transport still serving the operations started on it, null if none.
+     */
+    private volatile MemcachedTransport draining;
+
+    private final AtomicInteger poolGeneration = new AtomicInteger();
+
+    /**
+     * Completed once the transport is ready, until then the cache misses.
+     */
+    private final CompletableFuture<Void> started = new CompletableFuture<Void>();
+
+    /**
+     * Why the last start failed, null if none; the next invalidation starts
+     * again rather than waiting for the background retry.
+     */
+    private volatile RuntimeException startFailure;
+
+    private final ReentrantLock poolLock = new ReentrantLock();
+
+    /**
+     * Resizes the pool following the load, null if disabled.
+     */
+    private final PoolAutoscaler autoscaler;
+
+    /**
+     * The in-process view of the entries, null if disabled.
+     */
+    private final NearCache nearCache;
+
+    /**
+     * The persistent local tier, null if disabled.
+     */
+    private final DiskTier diskTier;
+
+    /**
+     * The recent misses, null if disabled.
+     */
+    private final NearCache misses;
+
+    /**
+     * The cache ids the recent misses are recorded for.
+     */
+    private final Set<String> missesIds;
+
+    /**
+     * Picks the expiration of each cache id, null if they all use the configured one.
+     */
+    private final AdaptiveExpiration adaptiveExpiration;
+
+    /**
+     * Decides which results are written, null if all of them are.
+     */
+    private final AdmissionPolicy admission;
+
+    /**
+     * The hot keys tracker, null if disabled.
+     */
+    private final HotKeyTracker hotKeys;
+
+    /**
+     * Invalidates the entries by table, null if the whole namespace is cleared.
+     */
+    private final TableTags tableTags;
+
+    /**
+     * Stores the entities of the result lists apart, null if no cache is normalized.
+     */
+    private final EntityNormalizer normalizer;
+
+    /**
+     * Results at least this large are stored once per content, 0 if disabled.
+     */
+    private final int dedupeMinSize;
+
+    /**
+     * The groups written by this client, compacted in background.
+     */
+    private final Set<String> groupKeys = ConcurrentHashMap.<String> newKeySet();
+
+    /**
+     * Runs the Memcached operations on behalf of the callers, null if they run
+     * on the calling thread.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Runs the asynchronous operations when no worker threads are configured.
+     */
+    private volatile ExecutorService asyncWorkers;
+
+    /**
+     * The latest slow operations, null if disabled.
+     */
+    private final SlowOperationLog slowOperations;
+
+    /**
+     * The cost of the cached results per statement, null if disabled.
+     */
+    private final StatementStats statementStats;
+
+    /**
+     * Bounds the gets in progress, null if unbounded.
+     */
+    private final OperationLimit getLimit;
+
+    /**
+     * Bounds the puts in progress, null if unbounded.
+     */
+    private final OperationLimit putLimit;
+
+    /**
+     * The statistics of the servers, null if not collected.
+     */
+    private final ServerStatsCollector serverStats;
+
+    private volatile ServerLocator serverLocator;
+
+    private final MemcachedDiagnostics diagnostics;
+
+    /**
+     * Runs the client background tasks.
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mybatis-memcached"));
+
 	/**
 	 * Used to represent an object retrieved from Memcached along with its CAS information
 	 * 
@@ -96,14 +288,525 @@ final class MemcachedClientWrapper {
 	}
 
     public MemcachedClientWrapper() {
-        configuration = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
-        client = new BinaryClient();
-        
+        this(MemcachedConfigurationBuilder.getInstance().parseConfiguration());
+    }
+
+    MemcachedClientWrapper(MemcachedConfiguration configuration) {
+        this.configuration = configuration;
+        poolConfiguration = configuration;
+        maxConn = configuration.getMaxConn();
+        if (configuration.isBackgroundStart()) {
+            // the first task, so the other background tasks find the transport ready
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startInBackground(MIN_START_RETRY_DELAY);
+                }
+            });
+        } else {
+            start();
+        }
+
+        if (configuration.getWorkerThreads() > 0) {
+            workers = Executors.newFixedThreadPool(configuration.getWorkerThreads(),
+                    new NamedThreadFactory("mybatis-memcached-worker"));
+        } else {
+            workers = null;
+        }
+
+        if (configuration.isTagging() && (configuration.getNearCacheSize() > 0
+                || configuration.getDiskTierDirectory() != null)) {
+            // the local tiers can't tell whether the tags of an entry changed since it was copied
+            LOG.warn("The near cache and the local tier are disabled along with the tagging");
+        }
+
+        if (configuration.getNearCacheSize() > 0 && !configuration.isTagging()) {
+            nearCache = new NearCache(configuration.getNearCacheSize(), configuration.getNearCacheTtl());
+        } else {
+            nearCache = null;
+        }
+
+        diskTier = createDiskTier();
+
+        if (configuration.getSlowLogThreshold() > 0 || configuration.getSlowLogSampleRate() > 0) {
+            slowOperations = new SlowOperationLog(configuration.getSlowLogSize(),
+                    configuration.getSlowLogThreshold(),
+                    configuration.getSlowLogSampleRate());
+        } else {
+            slowOperations = null;
+        }
+        if (configuration.isStatementStats()) {
+            statementStats = new StatementStats(ACCOUNTED_STATEMENTS);
+        } else {
+            statementStats = null;
+        }
+        getLimit = configuration.getSheddingMaxGets() > 0 ? new OperationLimit(configuration.getSheddingMaxGets()) : null;
+        putLimit = configuration.getSheddingMaxPuts() > 0 ? new OperationLimit(configuration.getSheddingMaxPuts()) : null;
+        serverStats = configuration.getStatsInterval() > 0 ? new ServerStatsCollector() : null;
+        if (configuration.getExpirationMax() > 0) {
+            adaptiveExpiration = new AdaptiveExpiration(configuration.getExpirationMin(),
+                    configuration.getExpirationMax());
+        } else {
+            adaptiveExpiration = null;
+        }
+
+        if (configuration.getAdmissionFrequency() > 0) {
+            admission = new AdmissionPolicy(configuration.getAdmissionSize(),
+                    configuration.getAdmissionFrequency(),
+                    configuration.getAdmissionCost());
+        } else {
+            admission = null;
+        }
+
+        if (configuration.isTagging()) {
+            tableTags = new TableTags(configuration.getTaggingTables(), TAGGED_MISSES);
+        } else {
+            tableTags = null;
+        }
+
+        EntityNormalizer entityNormalizer = new EntityNormalizer(configuration.getNormalizedIds(),
+                configuration.getEntityIdProperty());
+        normalizer = entityNormalizer.isEnabled() ? entityNormalizer : null;
+
+        if (configuration.getDedupeMinSize() > 0 && configuration.getTransport() == TransportType.WHALIN) {
+            // without touch, every result would write its content again
+            LOG.warn("The deduplication is disabled, the WHALIN transport can't touch the stored contents");
+            dedupeMinSize = 0;
+        } else {
+            dedupeMinSize = configuration.getDedupeMinSize();
+        }
+
+        serverLocator = new ServerLocator(configuration.getServers());
+        diagnostics = new MemcachedDiagnostics(slowOperations, statementStats, serverStats, admission, this);
+        registerDiagnostics();
+
+        if (configuration.getAutoscaleMaxConn() > 0 && configuration.getAutoscaleInterval() > 0) {
+            autoscaler = new PoolAutoscaler(configuration.getMinConn(), configuration.getAutoscaleMaxConn());
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    autoscalePool();
+                }
+            }, configuration.getAutoscaleInterval(), configuration.getAutoscaleInterval(), TimeUnit.SECONDS);
+        } else {
+            autoscaler = null;
+        }
+
+        if (configuration.getGroupCompactionInterval() > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    compactGroups();
+                }
+            }, configuration.getGroupCompactionInterval(), configuration.getGroupCompactionInterval(), TimeUnit.SECONDS);
+        }
+
+        if (serverStats != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    collectServerStats();
+                }
+            }, 0, configuration.getStatsInterval(), TimeUnit.SECONDS);
+        }
+
+        missesIds = new HashSet<String>(Arrays.asList(configuration.getNegativeCacheIds()));
+        missesIds.remove("");
+        if (!missesIds.isEmpty()) {
+            misses = new NearCache(configuration.getNegativeCacheSize(), configuration.getNegativeCacheTtl());
+        } else {
+            misses = null;
+        }
+
+        // hot keys are only worth prefetching if there is somewhere to keep them
+        if (nearCache != null && configuration.getHotKeysFile() != null) {
+            hotKeys = new HotKeyTracker(configuration.getHotKeysSize(), new File(configuration.getHotKeysFile()));
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prefetchHotKeys();
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        hotKeys.snapshot();
+                    } catch (Exception e) {
+                        LOG.error("Impossible to write the hot keys snapshot, see nested exceptions", e);
+                    }
+                }
+            }, configuration.getHotKeysSnapshotInterval(), configuration.getHotKeysSnapshotInterval(), TimeUnit.SECONDS);
+        } else {
+            hotKeys = null;
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug("Running new Memcached client using " + configuration);
         }
     }
 
+    /**
+     * Opens the transport, a slow or dead server delays the start by the
+     * connect timeout at most.
+     */
+    private void start() {
+        poolLock.lock();
+        try {
+            if (started.isDone()) {
+                return;
+            }
+            client = configuration.getTransport().create("mybatis-memcached-" + poolGeneration.incrementAndGet(),
+                    configuration, configuration.getMaxConn());
+            startFailure = null;
+            started.complete(null);
+        } catch (RuntimeException e) {
+            LOG.error("Impossible to connect to the Memcached servers, see nested exceptions", e);
+            startFailure = e;
+            throw e;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * Starts, and on failure tries again after a delay doubling up to a
+     * minute, until started.
+     */
+    private void startInBackground(final long retryDelay) {
+        try {
+            start();
+        } catch (RuntimeException e) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    startInBackground(Math.min(MAX_START_RETRY_DELAY, retryDelay * 2));
+                }
+            }, retryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs an operation that can't be skipped once the transport is ready,
+     * i.e. an invalidation.
+     */
+    private <T> CompletableFuture<T> whenStarted(Supplier<CompletableFuture<T>> operation) {
+        if (started.isDone()) {
+            return operation.get();
+        }
+        if (startFailure != null) {
+            // the background start failed, don't wait for its retry
+            try {
+                start();
+            } catch (RuntimeException e) {
+                CompletableFuture<T> failed = new CompletableFuture<T>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            return operation.get();
+        }
+        return started.thenCompose(ready -> operation.get());
+    }
+
+    /**
+     * Runs an operation within a limit of operations in progress.
+     *
+     * @param limit the limit, null if unbounded.
+     * @return the operation result, null right away if the limit is reached.
+     */
+    private <T> CompletableFuture<T> limited(final OperationLimit limit, Supplier<CompletableFuture<T>> operation) {
+        if (limit == null) {
+            return operation.get();
+        }
+        if (!limit.tryAcquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<T> result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException e) {
+            limit.release();
+            throw e;
+        }
+        result.whenComplete((ret, error) -> limit.release());
+        return result;
+    }
+
+    private void registerDiagnostics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(diagnostics,
+                    new ObjectName(MemcachedDiagnostics.OBJECT_NAME));
+        } catch (Exception e) {
+            // i.e. another application in the same JVM registered it
+            LOG.warn("Impossible to register the Memcached diagnostics MBean: " + e);
+        }
+    }
+
+    public MemcachedDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    public int getMaxConn() {
+        return maxConn;
+    }
+
+    public long getShedGets() {
+        return getLimit == null ? 0 : getLimit.getShed();
+    }
+
+    public long getShedPuts() {
+        return putLimit == null ? 0 : putLimit.getShed();
+    }
+
+    /**
+     * Reads again the pool settings from the properties file and replaces the
+     * connections pool with one using them.
+     */
+    public void reloadPool() {
+        MemcachedConfiguration reloaded = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+        replacePool(reloaded, reloaded.getMaxConn());
+    }
+
+    private void autoscalePool() {
+        int current = maxConn;
+        int next = autoscaler.nextMaxConn(current, poolConfiguration.getServers().length);
+        if (next == current) {
+            return;
+        }
+        MemcachedTransport transport = client;
+        if (transport == null) {
+            // not started yet
+            return;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Resizing the connections pool from " + current + " to " + next + " connections per server");
+        }
+        if (transport.resize(next)) {
+            maxConn = next;
+        } else if (draining == null) {
+            replacePool(poolConfiguration, next);
+        } else if (LOG.isDebugEnabled()) {
+            // a replacement at each step would pile up pools, resized next time
+            LOG.debug("The previous connections pool is still draining, not resized");
+        }
+    }
+
+    /**
+     * Replaces the connections pool: settings can't change once a pool is
+     * initialized, so a new transport is started and the previous one is shut
+     * down once the operations still using it are done. The autoscaler
+     * resizes the pool in place instead, when the transport allows it.
+     *
+     * @param config the pool settings.
+     * @param newMaxConn the per server max connections.
+     */
+    private void replacePool(MemcachedConfiguration config, int newMaxConn) {
+        poolLock.lock();
+        try {
+            String name = "mybatis-memcached-" + poolGeneration.incrementAndGet();
+            final MemcachedTransport oldClient = client;
+            if (oldClient == null) {
+                // not started yet
+                return;
+            }
+            client = config.getTransport().create(name, config, newMaxConn);
+            poolConfiguration = config;
+            maxConn = newMaxConn;
+            serverLocator = new ServerLocator(config.getServers());
+            draining = oldClient;
+
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    oldClient.shutdown();
+                    if (draining == oldClient) {
+                        draining = null;
+                    }
+                }
+            }, 2L * Math.max(config.getSocketTO(), config.getMaxBusyTime()), TimeUnit.MILLISECONDS);
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * Starts tracing an operation, if someone is interested in it.
+     */
+    private OperationTrace trace(String type, String id, String keyString) {
+        return trace(type, id, keyString, null);
+    }
+
+    /**
+     * Starts tracing an operation on the result of a statement, if someone is
+     * interested in it.
+     *
+     * @param key the MyBatis key of the result, null if the operation is not on a single result.
+     */
+    private OperationTrace trace(String type, String id, String keyString, Object key) {
+        if (slowOperations == null && statementStats == null) {
+            return OperationTrace.DISABLED;
+        }
+        String statement = null;
+        if (key != null) {
+            statement = CacheKeys.statementId(key);
+            if (statement == null) {
+                // not a CacheKey, account it to its namespace
+                statement = id;
+            }
+        }
+        return new OperationTrace(type, id, keyString, statement, serverLocator.locate(keyString));
+    }
+
+    /**
+     * Completes the trace once the operation completes.
+     */
+    private <T> CompletableFuture<T> traced(OperationTrace trace, CompletableFuture<T> operation) {
+        if (trace.isEnabled()) {
+            operation.whenComplete((result, error) -> {
+                if (slowOperations != null) {
+                    slowOperations.completed(trace);
+                } else {
+                    trace.finish();
+                }
+                if (statementStats != null && error == null) {
+                    statementStats.completed(trace, result != null);
+                }
+            });
+        }
+        return operation;
+    }
+
+    private DiskTier createDiskTier() {
+        if (configuration.getDiskTierDirectory() == null || configuration.isTagging()) {
+            return null;
+        }
+
+        try {
+            return new DiskTier(new File(configuration.getDiskTierDirectory()),
+                    configuration.getDiskTierSegmentSize(),
+                    configuration.getDiskTierSegments(),
+                    configuration.getDiskTierTtl() * 1000L);
+        } catch (IOException e) {
+            LOG.error("Impossible to open the local tier in '"
+                    + configuration.getDiskTierDirectory()
+                    + "', it won't be used; see nested exceptions", e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the hot keys recorded before the last shutdown in the near cache,
+     * throttled to the configured rate not to hammer the servers.
+     */
+    private void prefetchHotKeys() {
+        Map<String, List<String>> hottest;
+        try {
+            hottest = hotKeys.load();
+        } catch (IOException e) {
+            LOG.error("Impossible to read the hot keys snapshot, see nested exceptions", e);
+            return;
+        }
+
+        int rate = Math.max(1, configuration.getHotKeysPrefetchRate());
+        int batchSize = Math.min(PREFETCH_BATCH_SIZE, rate);
+        List<Map.Entry<String, List<String>>> batches = new ArrayList<Map.Entry<String, List<String>>>();
+        for (Map.Entry<String, List<String>> region : hottest.entrySet()) {
+            List<String> keys = region.getValue();
+            for (int from = 0; from < keys.size(); from += batchSize) {
+                batches.add(new AbstractMap.SimpleEntry<String, List<String>>(region.getKey(),
+                        keys.subList(from, Math.min(keys.size(), from + batchSize))));
+            }
+        }
+        prefetchBatch(batches.iterator(), 1000L * batchSize / rate, 0);
+    }
+
+    /**
+     * Prefetches a batch of hot keys and schedules the next one, so the other
+     * background tasks keep running while prefetching.
+     *
+     * @param batches the batches left, by cache id.
+     * @param pause the pause between two batches, in milliseconds.
+     * @param prefetched the keys prefetched so far.
+     */
+    private void prefetchBatch(final Iterator<Map.Entry<String, List<String>>> batches, final long pause,
+            int prefetched) {
+        if (!batches.hasNext()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Prefetched " + prefetched + " hot keys");
+            }
+            return;
+        }
+
+        int done = prefetched;
+        // not started yet, the batch is tried again later
+        if (client != null) {
+            Map.Entry<String, List<String>> batch = batches.next();
+            List<String> keys = batch.getValue();
+            Map<String, Object> values = client.getMulti(keys.toArray(new String[keys.size()]));
+            if (values != null) {
+                for (Map.Entry<String, Object> value : values.entrySet()) {
+                    Object data = unchunk(value.getKey(), value.getValue());
+                    if (data instanceof byte[]) {
+                        data = dereference(data);
+                    }
+                    if (data instanceof byte[]) {
+                        nearCache.put(batch.getKey(), value.getKey(), (byte[]) data);
+                        done++;
+                    }
+                }
+            }
+        }
+
+        final int total = done;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                prefetchBatch(batches, pause, total);
+            }
+        }, pause, TimeUnit.MILLISECONDS);
+    }
+
+    private void collectServerStats() {
+        MemcachedTransport transport = client;
+        if (transport == null) {
+            // not started yet
+            return;
+        }
+        try {
+            serverStats.collect(transport);
+        } catch (Exception e) {
+            LOG.error("Impossible to collect the servers statistics, see nested exceptions", e);
+        }
+    }
+
+    /**
+     * Returns the expiration of the entries of the given cache id.
+     *
+     * @param id the cache id.
+     * @return the expiration, in seconds.
+     */
+    private int expiration(String id) {
+        if (adaptiveExpiration == null) {
+            return configuration.getExpiration();
+        }
+        return adaptiveExpiration.expiration(id);
+    }
+
+    /**
+     * Returns the expiration of the groups, they must survive their entries
+     * or clear() would miss some of them.
+     *
+     * @return the expiration, in seconds.
+     */
+    private int groupExpiration() {
+        if (adaptiveExpiration == null || configuration.getExpiration() == 0) {
+            return configuration.getExpiration();
+        }
+        return Math.max(configuration.getExpiration(), configuration.getExpirationMax());
+    }
+
     /**
      * Converts the MyBatis object key in the proper string representation.
      * 
@@ -112,7 +815,8 @@ final class MemcachedClientWrapper {
      */
     private String toKeyString(final Object key) {
         // issue #1, key too long
-        String keyString = configuration.getKeyPrefix() + StringUtils.sha1Hex(key.toString());
+        String keyString = configuration.getKeyPrefix()
+                + configuration.getKeyFormat().digest(key.toString(), configuration.getKeyDigestLength());
         if (LOG.isDebugEnabled()) {
             LOG.debug("Object key '"
                     + key
@@ -125,67 +829,417 @@ final class MemcachedClientWrapper {
 
     /**
      *
-     * @param key
-     * @return
+     * @param key
+     * @param id the cache id
+     * @return
+     */
+    public Object getObject(Object key, String id) {
+        return join(getObject(key, id, workers));
+    }
+
+    /**
+     * Non blocking version of {@link #getObject(Object, String)}.
+     */
+    public CompletableFuture<Object> getObjectAsync(Object key, String id) {
+        return getObject(key, id, asyncWorkers());
+    }
+
+    private CompletableFuture<Object> getObject(Object key, String id, Executor executor) {
+        final String keyString = toKeyString(key);
+        final OperationTrace trace = trace("get", id, keyString, key);
+        CompletableFuture<Object> retrieved = retrieve(keyString, tagKeys(key, id), id, executor, trace);
+        if (normalizer != null && normalizer.isNormalized(id)) {
+            retrieved = retrieved.thenCompose(ret -> ret instanceof EntityNormalizer.EntityList
+                    ? execute(() -> assemble(keyString, (EntityNormalizer.EntityList) ret, trace), executor)
+                    : CompletableFuture.completedFuture(ret));
+        }
+        return traced(trace, retrieved).thenApply(ret -> {
+            if (ret == ELECTED) {
+                return null;
+            }
+            if (ret == null && admission != null) {
+                admission.recordMiss(keyString);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Retrived object ("
+                        + keyString
+                        + ", "
+                        + ret
+                        + ")");
+            }
+            return ret;
+        });
+    }
+
+	/**
+	 * Return the stored group in Memcached identified by the specified key.
+	 *
+	 * @param groupKey
+	 *            the group key.
+	 * @return the group if was previously stored, null otherwise.
+	 */
+	private ObjectWithCas getGroup(String groupKey) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Retrieving group with id '" + groupKey + "'");
+		}
+
+		ObjectWithCas groups = null;
+		try {
+			groups = retrieveWithCas(groupKey);
+		} catch (Exception e) {
+			LOG.error("Impossible to retrieve group '" + groupKey + "' see nested exceptions", e);
+		}
+
+		if (groups == null) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Group '" + groupKey + "' not previously stored");
+			}
+			return null;
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("retrieved group '" + groupKey + "' with values " + groups);
+		}
+
+		return groups;
+	}
+
+    /**
+     *
+     *
+     * @param keyString
+     * @param tagKeys the keys of the entry tags, null if not tagged.
+     * @param id
+     * @param executor
+     * @param trace
+     * @return
+     * @throws Exception
+     */
+    private CompletableFuture<Object> retrieve(final String keyString, final String[] tagKeys, final String id,
+            Executor executor, final OperationTrace trace) {
+        if (hotKeys != null) {
+            hotKeys.record(id, keyString);
+        }
+        if (admission != null) {
+            admission.recordAccess(keyString);
+        }
+
+        byte[] data = nearCache == null ? null : nearCache.get(id, keyString);
+        if (data == null && diskTier != null) {
+            data = diskTier.get(id, keyString);
+            if (data != null && nearCache != null) {
+                nearCache.put(id, keyString, data);
+            }
+        }
+        if (data != null) {
+            return CompletableFuture.completedFuture(decode(keyString, data, trace));
+        }
+
+        if (client == null) {
+            // not started yet
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final boolean recordMisses = misses != null && missesIds.contains(id);
+        if (recordMisses && misses.get(id, keyString) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // too many gets in progress, a miss now is better than a hit later
+        return limited(getLimit, () -> execute(() -> {
+            long sent = System.nanoTime();
+            Object retrieved = tagKeys == null ? unchunk(keyString, retrieveUntagged(keyString))
+                    : retrieveTagged(keyString, tagKeys);
+            retrieved = dereference(retrieved);
+            trace.network(sent);
+            return retrieved;
+        }, executor).thenApply(retrieved -> {
+            if (retrieved == null && recordMisses) {
+                misses.put(id, keyString, MISS);
+            }
+            if (!(retrieved instanceof byte[])) {
+                // not found, or stored by a previous version
+                return retrieved;
+            }
+            byte[] retrievedData = (byte[]) retrieved;
+            if (nearCache != null) {
+                nearCache.put(id, keyString, retrievedData);
+            }
+            if (diskTier != null) {
+                diskTier.put(id, keyString, retrievedData);
+            }
+            return decode(keyString, retrievedData, trace);
+        }));
+    }
+
+    /**
+     * Reads an untagged entry; once it's about to expire the elected reader
+     * gets a miss and reloads it, while the others keep reading the current
+     * value instead of all reloading it on expiration.
+     *
+     * @param keyString the entry key.
+     * @return the retrieved item, null if missing, {@link #ELECTED} if elected to refresh it.
+     */
+    private Object retrieveUntagged(String keyString) {
+        int refreshAhead = configuration.getRefreshAhead();
+        if (refreshAhead <= 0) {
+            return client.get(keyString);
+        }
+        MemcachedTransport.MetaValue retrieved = client.getWithMeta(keyString, refreshAhead);
+        if (retrieved == null) {
+            return null;
+        }
+        return retrieved.isWin() ? ELECTED : retrieved.getValue();
+    }
+
+    /**
+     * Reassembles a normalized list from its entities, in a single multi-get.
+     *
+     * @param keyString the list key.
+     * @param list the keys of the list entities.
+     * @param trace the operation trace.
+     * @return the list, null if any entity is missing.
+     */
+    private Object assemble(String keyString, EntityNormalizer.EntityList list, OperationTrace trace) {
+        if (client == null) {
+            return null;
+        }
+
+        String[] keys = list.getKeys();
+        Set<String> distinctKeys = new LinkedHashSet<String>(Arrays.asList(keys));
+        long sent = System.nanoTime();
+        Map<String, Object> values = client.getMulti(distinctKeys.toArray(new String[distinctKeys.size()]));
+        trace.network(sent);
+        if (values == null) {
+            return null;
+        }
+
+        // an entity appearing twice is the very same object, as it was in the stored list
+        Map<String, Object> entities = new HashMap<String, Object>();
+        List<Object> result = new ArrayList<Object>(keys.length);
+        for (String entityKey : keys) {
+            Object entity = entities.get(entityKey);
+            if (entity == null) {
+                Object data = unchunk(entityKey, values.get(entityKey));
+                entity = data instanceof byte[] ? decode(entityKey, (byte[]) data, trace) : null;
+                if (entity == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Object '" + keyString + "' lost entity '" + entityKey + "'");
+                    }
+                    return null;
+                }
+                entities.put(entityKey, entity);
+            }
+            result.add(entity);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys of the tags of an entry.
+     *
+     * @param key the MyBatis object key.
+     * @param id the cache id.
+     * @return the tag keys, null if tagging is disabled.
+     */
+    private String[] tagKeys(Object key, String id) {
+        if (tableTags == null) {
+            return null;
+        }
+        String[] tags = tableTags.tagsOf(key, id);
+        String[] tagKeys = new String[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            tagKeys[i] = toKeyString(tags[i]);
+        }
+        return tagKeys;
+    }
+
+    /**
+     * Retrieves a tagged value along with the versions of its tags, in a
+     * single multi-get.
+     *
+     * @param keyString the value key.
+     * @param tagKeys the keys of the value tags.
+     * @return the untagged value, null if missing or if any tag changed since it was stored.
+     */
+    private Object retrieveTagged(String keyString, String[] tagKeys) {
+        String[] keys = Arrays.copyOf(tagKeys, tagKeys.length + 1);
+        keys[tagKeys.length] = keyString;
+        Map<String, Object> values = client.getMulti(keys);
+        if (values == null) {
+            return null;
+        }
+        long[] versions = tagVersions(tagKeys, values);
+
+        Object retrieved = unchunk(keyString, values.get(keyString));
+        if (retrieved instanceof byte[] && versions != null
+                && Arrays.equals(versions, TableTags.versionsOf((byte[]) retrieved))) {
+            return TableTags.unwrap((byte[]) retrieved);
+        }
+
+        // the database is queried after these versions were read, so its result goes with them
+        if (versions != null) {
+            tableTags.observed(keyString, versions);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the versions of the given tags, creating the missing ones.
+     *
+     * @param tagKeys the tag keys.
+     * @param values the retrieved tags, may lack some tags.
+     * @return the versions, null if any is unknown.
+     */
+    private long[] tagVersions(String[] tagKeys, Map<String, Object> values) {
+        long[] versions = new long[tagKeys.length];
+        for (int i = 0; i < tagKeys.length; i++) {
+            long version = TableTags.decodeVersion(values.get(tagKeys[i]));
+            if (version == 0) {
+                // never written, evicted, or not retrieved: a new version invalidates what it tagged
+                version = TableTags.newVersion();
+                if (!client.add(tagKeys[i], TableTags.encodeVersion(version), 0)) {
+                    version = TableTags.decodeVersion(client.get(tagKeys[i]));
+                }
+                if (version == 0) {
+                    return null;
+                }
+            }
+            versions[i] = version;
+        }
+        return versions;
+    }
+
+    /**
+     * Prepends the versions of its tags to a value about to be stored.
+     *
+     * @param keyString the value key.
+     * @param tagKeys the keys of the value tags, null if not tagged.
+     * @param data the serialized value, only written if it is going to be stored.
+     * @return the value to store, null if the tag versions read on the miss are unknown.
+     */
+    private byte[] tag(String keyString, String[] tagKeys, Supplier<byte[]> data) {
+        if (tagKeys == null) {
+            return data.get();
+        }
+        long[] versions = tableTags.takeObserved(keyString);
+        if (versions == null || versions.length != tagKeys.length) {
+            // not looked up before, or forgotten: the current versions may be newer than the result
+            return null;
+        }
+        return TableTags.wrap(versions, data.get());
+    }
+
+    /**
+     * Fetches the chunks of a value stored in several items.
+     *
+     * @param keyString the value key.
+     * @param retrieved what has been retrieved for the key.
+     * @return the whole value, null if any chunk is missing.
+     */
+    private Object unchunk(String keyString, Object retrieved) {
+        if (!(retrieved instanceof byte[]) || !ChunkedValue.isManifest((byte[]) retrieved)) {
+            return retrieved;
+        }
+
+        ChunkedValue chunked = ChunkedValue.parse(keyString, (byte[]) retrieved);
+        byte[] data = chunked.assemble(client.getMulti(chunked.chunkKeys()));
+        if (data == null && LOG.isDebugEnabled()) {
+            LOG.debug("Object '" + keyString + "' lost some chunks");
+        }
+        return data;
+    }
+
+    /**
+     * Follows a pointer to a deduplicated result.
+     *
+     * @param retrieved what has been retrieved for a result key.
+     * @return the result, null if its content is missing.
+     */
+    private Object dereference(Object retrieved) {
+        if (!(retrieved instanceof byte[]) || !ContentPointer.isPointer((byte[]) retrieved)) {
+            return retrieved;
+        }
+
+        String contentKey = ContentPointer.decode((byte[]) retrieved);
+        return unchunk(contentKey, client.get(contentKey));
+    }
+
+    /**
+     * Stores a result once per content, when large enough: the result is
+     * written under the hash of its content, unless already there, and the
+     * result key just points to it.
+     *
+     * @param data the serialized result.
+     * @param expiration the expiration, in seconds.
+     * @param contentKeys where the keys of the content items are added, to be
+     *        grouped along with the result so a clear deletes them.
+     * @param trace the operation trace.
+     * @return what has to be stored under the result key.
      */
-    public Object getObject(Object key) {
-        String keyString = toKeyString(key);
-        Object ret = retrieve(keyString);
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Retrived object ("
-                    + keyString
-                    + ", "
-                    + ret
-                    + ")");
+    private byte[] deduplicate(byte[] data, int expiration, Collection<String> contentKeys, OperationTrace trace) {
+        if (dedupeMinSize <= 0 || data.length < dedupeMinSize) {
+            return data;
         }
 
-        return ret;
+        String contentKey = toKeyString(CONTENT_PREFIX + ContentPointer.contentName(data));
+        long sent = System.nanoTime();
+        List<String> touched = touchContent(contentKey, data, expiration);
+        trace.network(sent);
+        if (touched == null) {
+            contentKeys.addAll(storeInMemcached(contentKey, data, expiration, trace));
+        } else {
+            contentKeys.addAll(touched);
+        }
+        return ContentPointer.encode(contentKey);
     }
 
-	/**
-	 * Return the stored group in Memcached identified by the specified key.
-	 *
-	 * @param groupKey
-	 *            the group key.
-	 * @return the group if was previously stored, null otherwise.
-	 */
-	private ObjectWithCas getGroup(String groupKey) {
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("Retrieving group with id '" + groupKey + "'");
-		}
-
-		ObjectWithCas groups = null;
-		try {
-			groups = retrieveWithCas(groupKey);
-		} catch (Exception e) {
-			LOG.error("Impossible to retrieve group '" + groupKey + "' see nested exceptions", e);
-		}
-
-		if (groups == null) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("Group '" + groupKey + "' not previously stored");
-			}
-			return null;
-		}
-
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("retrieved group '" + groupKey + "' with values " + groups);
-		}
-
-		return groups;
-	}
-
     /**
+     * Extends the life of a stored content, along with its chunks.
      *
+     * @return the keys of the content items, null unless the whole content is still there.
+     */
+    private List<String> touchContent(String contentKey, byte[] data, int expiration) {
+        List<String> keys = new ArrayList<String>();
+        int chunkSize = configuration.getChunkSize();
+        if (chunkSize > 0 && data.length > chunkSize) {
+            Object manifest = client.get(contentKey);
+            if (!(manifest instanceof byte[]) || !ChunkedValue.isManifest((byte[]) manifest)) {
+                return null;
+            }
+            for (String chunkKey : ChunkedValue.parse(contentKey, (byte[]) manifest).chunkKeys()) {
+                if (!client.touch(chunkKey, expiration)) {
+                    return null;
+                }
+                keys.add(chunkKey);
+            }
+        }
+        if (!client.touch(contentKey, expiration)) {
+            return null;
+        }
+        keys.add(contentKey);
+        return keys;
+    }
+
+    /**
+     * Restores a retrieved value, an undecodable value is treated as a miss.
      *
      * @param keyString
+     * @param data
+     * @param trace
      * @return
-     * @throws Exception
      */
-    private Object retrieve(final String keyString) {
-        Object retrieved = client.get(keyString);
-        return retrieved;
+    private Object decode(final String keyString, final byte[] data, final OperationTrace trace) {
+        trace.bytes(data.length);
+        long start = System.nanoTime();
+        try {
+            return SerializationUtils.deserialize(data);
+        } catch (Exception e) {
+            LOG.error("Impossible to restore object '" + keyString + "' see nested exceptions", e);
+            return null;
+        } finally {
+            trace.serialization(start);
+        }
     }
 
 	/**
@@ -196,18 +1250,43 @@ final class MemcachedClientWrapper {
 	 * @throws Exception
 	 */
 	private ObjectWithCas retrieveWithCas(final String keyString) {
-		MemcachedItem retrieved = client.gets(keyString);
+		MemcachedTransport.CasValue retrieved = client.gets(keyString);
 		if (retrieved == null) {
 			return null;
 		}
 
-		return new ObjectWithCas(retrieved.getValue(), retrieved.getCasUnique());
+		Object value = retrieved.getValue();
+		if (value instanceof byte[]) {
+			value = SerializationUtils.deserialize((byte[]) value);
+		}
+		return new ObjectWithCas(value, retrieved.getCas());
 	}
 
-    @SuppressWarnings("unchecked")
 	public void putObject(Object key, Object value, String id) {
-        String keyString = toKeyString(key);
-        String groupKey = toKeyString(id);
+        join(putObject(key, value, id, workers));
+    }
+
+    /**
+     * Non blocking version of {@link #putObject(Object, Object, String)}.
+     */
+    public CompletableFuture<Void> putObjectAsync(Object key, Object value, String id) {
+        return putObject(key, value, id, asyncWorkers());
+    }
+
+    private CompletableFuture<Void> putObject(Object key, Object value, String id, Executor executor) {
+        final String keyString = toKeyString(key);
+        final String groupKey = toKeyString(id);
+        final String[] tagKeys = tagKeys(key, id);
+
+        if (client == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (admission != null && !admission.admit(keyString)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Object '" + keyString + "' not worth caching yet");
+            }
+            return CompletableFuture.completedFuture(null);
+        }
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Putting object ("
@@ -217,48 +1296,373 @@ final class MemcachedClientWrapper {
                     + ")");
         }
 
-        storeInMemcached(keyString, value);
+        final OperationTrace trace = trace("put", id, keyString, key);
+        long start = System.nanoTime();
+        final Map<String, byte[]> entities = entities(id);
+        final byte[] data = serialize(key, value, id, entities);
+        trace.serialization(start);
+        trace.bytes(data.length + size(entities));
+
+        if (nearCache != null) {
+            nearCache.put(id, keyString, data);
+        }
+        if (diskTier != null) {
+            diskTier.put(id, keyString, data);
+        }
+        if (misses != null) {
+            misses.remove(id, keyString);
+        }
+
+        final int expiration = expiration(id);
+        // too many puts in progress, the local tiers are up to date anyway
+        return limited(putLimit, () -> traced(trace, execute(() -> {
+            List<String> contentKeys = new ArrayList<String>();
+            byte[] stored = tag(keyString, tagKeys, () -> deduplicate(data, expiration, contentKeys, trace));
+            if (stored != null) {
+                List<String> keys = storeEntities(entities, expiration, trace);
+                keys.addAll(contentKeys);
+                keys.addAll(storeInMemcached(keyString, stored, expiration, trace));
+                addToGroup(groupKey, keys, expiration, trace);
+            }
+            return null;
+        }, executor)));
+    }
+
+    /**
+     * Stores several objects of the same namespace at once: the values are
+     * written in parallel on the worker threads, if any, otherwise on the
+     * calling thread, and the group is updated just once for all of them.
+     *
+     * @param entries the objects have to be stored.
+     * @param id the cache id.
+     */
+    public void putObjects(Map<Object, Object> entries, String id) {
+        if (entries.isEmpty() || client == null) {
+            return;
+        }
+        if (putLimit == null) {
+            storeObjects(entries, id);
+            return;
+        }
+
+        // too many puts in progress, the whole batch is dropped
+        if (putLimit.tryAcquire()) {
+            try {
+                storeObjects(entries, id);
+            } finally {
+                putLimit.release();
+            }
+        }
+    }
+
+    private void storeObjects(Map<Object, Object> entries, String id) {
+        final String groupKey = toKeyString(id);
+        final Set<String> keyStrings = new HashSet<String>();
+        final OperationTrace trace = trace("putAll", id, groupKey);
+        final int expiration = expiration(id);
+        List<CompletableFuture<Collection<String>>> stored = new ArrayList<CompletableFuture<Collection<String>>>(entries.size());
+
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            final String keyString = toKeyString(entry.getKey());
+            if (admission != null && !admission.admit(keyString)) {
+                continue;
+            }
+            final String[] tagKeys = tagKeys(entry.getKey(), id);
+            final OperationTrace entryTrace = trace("put", id, keyString, entry.getKey());
+            long start = System.nanoTime();
+            final Map<String, byte[]> entities = entities(id);
+            final byte[] data = serialize(entry.getKey(), entry.getValue(), id, entities);
+            trace.serialization(start);
+            trace.bytes(data.length + size(entities));
+            entryTrace.serialization(start);
+            entryTrace.bytes(data.length + size(entities));
+            keyStrings.add(keyString);
+
+            if (nearCache != null) {
+                nearCache.put(id, keyString, data);
+            }
+            if (diskTier != null) {
+                diskTier.put(id, keyString, data);
+            }
+            if (misses != null) {
+                misses.remove(id, keyString);
+            }
+
+            stored.add(traced(entryTrace, execute(() -> {
+                List<String> contentKeys = new ArrayList<String>();
+                byte[] tagged = tag(keyString, tagKeys, () -> deduplicate(data, expiration, contentKeys, entryTrace));
+                if (tagged == null) {
+                    return Collections.<String> emptySet();
+                }
+                List<String> keys = storeEntities(entities, expiration, entryTrace);
+                keys.addAll(contentKeys);
+                keys.addAll(storeInMemcached(keyString, tagged, expiration, entryTrace));
+                return keys;
+            }, workers)));
+        }
+
+        if (keyStrings.isEmpty()) {
+            return;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Putting " + keyStrings.size() + " objects in group '" + groupKey + "'");
+        }
+
+        join(traced(trace, CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[stored.size()]))
+                .thenCompose(done -> execute(() -> {
+                    Set<String> storedKeys = new HashSet<String>();
+                    for (CompletableFuture<Collection<String>> keys : stored) {
+                        storedKeys.addAll(keys.join());
+                    }
+                    addToGroup(groupKey, storedKeys, expiration, trace);
+                    return null;
+                }, workers))));
+    }
+
+    /**
+     * @param id the cache id.
+     * @return where the entities of a result of the given cache are collected.
+     */
+    private Map<String, byte[]> entities(String id) {
+        if (normalizer == null || !normalizer.isNormalized(id)) {
+            return Collections.emptyMap();
+        }
+        return new LinkedHashMap<String, byte[]>();
+    }
+
+    /**
+     * Serializes a result; a normalized list is serialized as the keys of its
+     * entities, and the entities apart.
+     *
+     * @param value the result.
+     * @param id the cache id.
+     * @param entities collects the serialized entities by key.
+     * @return the serialized result.
+     */
+    private byte[] serialize(Object key, Object value, String id, Map<String, byte[]> entities) {
+        String[] references = normalizer == null ? null : normalizer.references(value, id);
+        if (references == null) {
+            return SerializationUtils.serialize(value);
+        }
+
+        // another statement may read other properties or associations of the same rows
+        String statementId = CacheKeys.statementId(key);
+        String prefix = id + ENTITY_SEPARATOR + (statementId == null ? "" : statementId + ":");
+        List<?> list = (List<?>) value;
+        String[] keys = new String[references.length];
+        for (int i = 0; i < references.length; i++) {
+            keys[i] = toKeyString(prefix + references[i]);
+            if (!entities.containsKey(keys[i])) {
+                entities.put(keys[i], SerializationUtils.serialize(list.get(i)));
+            }
+        }
+        return SerializationUtils.serialize(new EntityNormalizer.EntityList(keys));
+    }
+
+    private static long size(Map<String, byte[]> entities) {
+        long size = 0;
+        for (byte[] data : entities.values()) {
+            size += data.length;
+        }
+        return size;
+    }
+
+    /**
+     * Stores the entities of a normalized list, before the list so a reader
+     * doesn't find it without its entities.
+     *
+     * @param entities the serialized entities by key.
+     * @param expiration the expiration, in seconds.
+     * @param trace the operation trace.
+     * @return the keys of the stored items.
+     */
+    private List<String> storeEntities(Map<String, byte[]> entities, int expiration, OperationTrace trace) {
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, byte[]> entity : entities.entrySet()) {
+            keys.addAll(storeInMemcached(entity.getKey(), entity.getValue(), expiration, trace));
+        }
+        return keys;
+    }
+
+    /**
+     * Adds keys to the group of their namespace, dropping the expired members
+     * and the oldest ones above the max group size.
+     *
+     * @param groupKey the group key.
+     * @param keyStrings the keys have to be added.
+     * @param expiration the keys expiration, in seconds.
+     * @param trace the operation trace.
+     */
+    private void addToGroup(String groupKey, Collection<String> keyStrings, int expiration, OperationTrace trace) {
+        long now = System.currentTimeMillis();
+        long expiresAt = expiration == 0 ? 0 : now + expiration * 1000L;
 
         // add namespace key into memcached
         // Optimistic lock approach...
- 		boolean jobDone = false;
+        for (int retries = 0;; retries++) {
+            long sent = System.nanoTime();
+            ObjectWithCas group = getGroup(groupKey);
+            GroupIndex index = GroupIndex.of(group == null ? null : group.getObject());
+            for (String keyString : keyStrings) {
+                index.add(keyString, expiresAt);
+            }
+            index.prune(now);
+            List<String> trimmed = new ArrayList<String>(index.trim(configuration.getGroupMaxSize()));
+            byte[] data = serializeGroup(index, trimmed);
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Insert/Updating object (" + groupKey + ", " + index.size() + " keys)");
+            }
+
+            boolean jobDone;
+            if (group == null || group.getObject() == null) {
+                jobDone = client.add(groupKey, data, groupExpiration());
+            } else {
+                jobDone = client.cas(groupKey, data, group.getCas());
+            }
+            trace.network(sent);
 
- 		while (!jobDone) {
- 			ObjectWithCas group = getGroup(groupKey);
- 			Set<String> groupValues;
+            if (jobDone) {
+                groupKeys.add(groupKey);
+                for (String keyString : trimmed) {
+                    client.delete(keyString);
+                }
+                return;
+            }
+            trace.casRetry();
+            // randomized backoff, not to fail again against the same writers
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(GROUP_RETRY_BACKOFF * Math.min(retries + 1, 10)));
+        }
+    }
+
+    /**
+     * Serializes a group, trimming its oldest members if it doesn't fit in an
+     * item: it could never be stored and its updates would retry forever.
+     *
+     * @param index the group.
+     * @param trimmed collects the trimmed members.
+     * @return the serialized group.
+     */
+    private byte[] serializeGroup(GroupIndex index, List<String> trimmed) {
+        byte[] data = SerializationUtils.serialize(index);
+        int maxLength = configuration.getChunkSize();
+        while (maxLength > 0 && data.length > maxLength && !index.isEmpty()) {
+            trimmed.addAll(index.trim((int) (index.size() * (maxLength * 0.9 / data.length))));
+            data = SerializationUtils.serialize(index);
+        }
+        return data;
+    }
+
+    /**
+     * Compacts the groups written by this client.
+     */
+    private void compactGroups() {
+        if (client == null) {
+            return;
+        }
+        for (String groupKey : groupKeys) {
+            try {
+                compactGroup(groupKey);
+            } catch (Exception e) {
+                LOG.error("Impossible to compact group '" + groupKey + "', see nested exceptions", e);
+            }
+        }
+    }
 
- 			if (group == null || group.getObject() == null) {
- 				groupValues = new HashSet<String>();
- 				groupValues.add(keyString);
+    /**
+     * Drops the expired and evicted members of a group; a concurrent update
+     * wins, the group is compacted again next time.
+     *
+     * @param groupKey the group key.
+     */
+    private void compactGroup(String groupKey) {
+        ObjectWithCas group = getGroup(groupKey);
+        if (group == null || group.getObject() == null) {
+            groupKeys.remove(groupKey);
+            return;
+        }
 
- 				if (LOG.isDebugEnabled()) {
- 					LOG.debug("Insert/Updating object (" + groupKey + ", " + groupValues + ")");
- 				}
+        GroupIndex index = GroupIndex.of(group.getObject());
+        int size = index.size();
+        index.prune(System.currentTimeMillis());
 
- 				jobDone = tryToAdd(groupKey, groupValues);
- 			} else {
- 				groupValues = (Set<String>) group.getObject();
- 				groupValues.add(keyString);
+        // memcached evicts before expiration, the members not found are gone
+        List<String> members = new ArrayList<String>(index);
+        List<String> dead = new ArrayList<String>();
+        for (int from = 0; from < members.size(); from += PREFETCH_BATCH_SIZE) {
+            List<String> batch = members.subList(from, Math.min(members.size(), from + PREFETCH_BATCH_SIZE));
+            // checked without fetching the values, if the transport allows it
+            Set<String> found = client.exists(batch.toArray(new String[batch.size()]));
+            if (found == null) {
+                // a failed server, its members are not known to be gone
+                continue;
+            }
+            for (String member : batch) {
+                if (!found.contains(member)) {
+                    dead.add(member);
+                }
+            }
+        }
+        for (String member : dead) {
+            // a failed lookup must not leave a live member out of the group
+            client.delete(member);
+            index.remove(member);
+        }
+        List<String> trimmed = new ArrayList<String>(index.trim(configuration.getGroupMaxSize()));
+        byte[] data = serializeGroup(index, trimmed);
 
- 				jobDone = storeInMemcached(groupKey, group);
- 			}
- 		}
+        if (index.size() == size) {
+            return;
+        }
+        if (client.cas(groupKey, data, group.getCas())) {
+            for (String keyString : trimmed) {
+                client.delete(keyString);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compacted group '" + groupKey + "' from " + size + " to " + index.size() + " keys");
+            }
+        }
     }
 
     /**
-     * Stores an object identified by a key in Memcached.
+     * Stores an object identified by a key in Memcached, in several items if
+     * it exceeds the configured chunk size.
      *
      * @param keyString the object key
-     * @param value the object has to be stored.
+     * @param data the serialized object has to be stored.
+     * @param expirationTime the expiration, in seconds.
+     * @param trace the operation trace.
+     * @return the keys of the stored items.
      */
-    private void storeInMemcached(String keyString, Object value) {
-        if (value != null
-                && !Serializable.class.isAssignableFrom(value.getClass())) {
-            throw new CacheException("Object of type '"
-                    + value.getClass().getName()
-                    + "' that's non-serializable is not supported by Memcached");
+    private Collection<String> storeInMemcached(String keyString, byte[] data, int expirationTime, OperationTrace trace) {
+        long sent = System.nanoTime();
+        int chunkSize = configuration.getChunkSize();
+        if (chunkSize <= 0 || data.length <= chunkSize) {
+            client.set(keyString, data, expirationTime);
+            trace.network(sent);
+            if (serverStats != null) {
+                serverStats.recordItem(keyString, data.length);
+            }
+            return Collections.singleton(keyString);
+        }
+
+        // chunks first, a reader must never find a manifest without its chunks
+        ChunkedValue chunked = ChunkedValue.of(keyString, data, chunkSize);
+        String[] chunkKeys = chunked.chunkKeys();
+        for (int i = 0; i < chunkKeys.length; i++) {
+            byte[] chunk = chunked.chunk(data, i);
+            client.set(chunkKeys[i], chunk, expirationTime);
+            if (serverStats != null) {
+                serverStats.recordItem(chunkKeys[i], chunk.length);
+            }
         }
-        client.set(keyString, value, new Date(configuration.getExpiration() * 1000));
+        client.set(keyString, chunked.manifest(), expirationTime);
+        trace.network(sent);
+
+        List<String> keys = new ArrayList<String>(Arrays.asList(chunkKeys));
+        keys.add(keyString);
+        return keys;
     }
 
 	/**
@@ -271,31 +1675,22 @@ final class MemcachedClientWrapper {
 	 * @return
 	 */
 	private boolean storeInMemcached(String keyString, ObjectWithCas value) {
-		if (value != null && value.getObject() != null && !Serializable.class.isAssignableFrom(value.getObject().getClass())) {
-			throw new CacheException("Object of type '" + value.getObject().getClass().getName() + "' that's non-serializable is not supported by Memcached");
-		}
-		
-		return client.cas(keyString, value.getObject(), value.getCas());
+		return client.cas(keyString, SerializationUtils.serialize(value.getObject()), value.getCas());
 	}
 
-	/**
-	 * Tries to store an object identified by a key in Memcached.
-	 * 
-	 * Will fail if the object already exists.
-	 * 
-	 * @param keyString
-	 * @param value
-	 * @return
-	 */
-	private boolean tryToAdd(String keyString, Object value) {
-		if (value != null && !Serializable.class.isAssignableFrom(value.getClass())) {
-			throw new CacheException("Object of type '" + value.getClass().getName() + "' that's non-serializable is not supported by Memcached");
-		}
-		return client.add(keyString, value, new Date(configuration.getExpiration() * 1000));
-	}
+    public Object removeObject(Object key, String id) {
+        return join(removeObject(key, id, workers));
+    }
+
+    /**
+     * Non blocking version of {@link #removeObject(Object, String)}.
+     */
+    public CompletableFuture<Object> removeObjectAsync(Object key, String id) {
+        return removeObject(key, id, asyncWorkers());
+    }
 
-    public Object removeObject(Object key) {
-        String keyString = toKeyString(key);
+    private CompletableFuture<Object> removeObject(Object key, String id, Executor executor) {
+        final String keyString = toKeyString(key);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Removing object '"
@@ -303,37 +1698,260 @@ final class MemcachedClientWrapper {
                     + "'");
         }
 
-        Object result = getObject(key);
-        if (result != null) {
+        if (nearCache != null) {
+            nearCache.remove(id, keyString);
+        }
+        if (diskTier != null) {
+            diskTier.remove(id, keyString);
+        }
+        if (misses != null) {
+            misses.remove(id, keyString);
+        }
+
+        // never shed nor skipped: the key is deleted whatever is read first
+        final OperationTrace trace = trace("remove", id, keyString);
+        return traced(trace, whenStarted(() -> execute(() -> {
+            long sent = System.nanoTime();
+            Object previous = peek(keyString, trace);
             client.delete(keyString);
+            trace.network(sent);
+            return previous;
+        }, executor)));
+    }
+
+    /**
+     * Reads the value about to be removed, whatever its tags or its refresh;
+     * it's just returned to the caller, so a failure only makes it unknown.
+     *
+     * @param keyString the value key.
+     * @param trace the operation trace.
+     * @return the value, null if missing or unknown.
+     */
+    private Object peek(String keyString, OperationTrace trace) {
+        try {
+            Object retrieved = unchunk(keyString, client.get(keyString));
+            if (retrieved instanceof byte[] && tableTags != null) {
+                retrieved = TableTags.unwrap((byte[]) retrieved);
+            }
+            retrieved = dereference(retrieved);
+            if (!(retrieved instanceof byte[])) {
+                return retrieved;
+            }
+            Object value = decode(keyString, (byte[]) retrieved, trace);
+            if (value instanceof EntityNormalizer.EntityList) {
+                value = assemble(keyString, (EntityNormalizer.EntityList) value, trace);
+            }
+            return value;
+        } catch (RuntimeException e) {
+            LOG.warn("Impossible to read '" + keyString + "' before removing it: " + e);
+            return null;
         }
-        return result;
     }
 
-    @SuppressWarnings("unchecked")
 	public void removeGroup(String id) {
-		String groupKeyString = toKeyString(id);
+		join(removeGroup(id, workers));
+	}
+
+    /**
+     * Non blocking version of {@link #removeGroup(String)}.
+     */
+    public CompletableFuture<Void> removeGroupAsync(String id) {
+        return removeGroup(id, asyncWorkers());
+    }
+
+    private CompletableFuture<Void> removeGroup(String id, Executor executor) {
+        final String groupKeyString = toKeyString(id);
+        // read on the committing thread, before going async
+        final Set<String> writtenTags = tableTags == null ? null
+                : tableTags.writtenTags(TableTagsInterceptor.writes(), id);
+        if (nearCache != null) {
+            nearCache.clear(id);
+        }
+        if (diskTier != null) {
+            try {
+                diskTier.clear(id);
+            } catch (CacheException e) {
+                // the other nodes have to be invalidated anyway
+                LOG.error("Impossible to clear the local tier of '" + id + "', see nested exceptions", e);
+            }
+        }
+        if (misses != null) {
+            misses.clear(id);
+        }
+        if (adaptiveExpiration != null) {
+            adaptiveExpiration.cleared(id);
+        }
+        final OperationTrace trace = trace("clear", id, groupKeyString);
+        if (writtenTags != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Invalidating " + writtenTags + " rather than clearing '" + id + "'");
+            }
+            return traced(trace, whenStarted(() -> execute(() -> {
+                invalidateTags(writtenTags, trace);
+                return null;
+            }, executor)));
+        }
+        return traced(trace, whenStarted(() -> execute(() -> {
+            deleteGroup(groupKeyString, trace);
+            return null;
+        }, executor)));
+    }
+
+    /**
+     * Replaces the versions of the given tags, the entries stored with the
+     * previous ones are no longer valid.
+     *
+     * @param tags the tags.
+     * @param trace the operation trace.
+     */
+    private void invalidateTags(Set<String> tags, OperationTrace trace) {
+        long sent = System.nanoTime();
+        for (String tag : tags) {
+            String tagKey = toKeyString(tag);
+            if (!client.set(tagKey, TableTags.encodeVersion(TableTags.newVersion()), 0)) {
+                // the previous version must not survive, an evicted tag invalidates its entries anyway
+                client.delete(tagKey);
+            }
+        }
+        trace.network(sent);
+    }
+
+    /**
+     * Deletes all the keys of a group and empties it.
+     *
+     * @param groupKeyString the group key.
+     * @param trace the operation trace.
+     */
+    private void deleteGroup(String groupKeyString, OperationTrace trace) {
         ObjectWithCas group = null;
         boolean result = false;
         do {
+            long sent = System.nanoTime();
             group = getGroup(groupKeyString);
             if (group == null || group.getObject() == null) {
                 return;
             }
             
-            Set<String> groupValues = (Set<String>) group.getObject();
-            for (String key : groupValues) {
+            for (String key : GroupIndex.of(group.getObject())) {
                 client.delete(key);
             }
-            
-            result = client.cas(groupKeyString, new HashSet<String>(), group.getCas());
+
+            result = storeInMemcached(groupKeyString, new ObjectWithCas(new GroupIndex(), group.getCas()));
+            trace.network(sent);
+            if (!result) {
+                trace.casRetry();
+            }
         } while(!result);
-        
-	}
+    }
+
+    /**
+     * Runs a task that talks to Memcached on the given executor, or on the
+     * calling thread if null.
+     *
+     * Waiting on a worker only parks the caller, so virtual threads are never
+     * pinned by the monitors held by the client while doing socket I/O.
+     *
+     * @param task the task has to be executed.
+     * @param executor the executor, may be null.
+     * @return the task result.
+     */
+    private <T> CompletableFuture<T> execute(Callable<T> task, Executor executor) {
+        if (executor == null) {
+            CompletableFuture<T> result = new CompletableFuture<T>();
+            try {
+                result.complete(call(task));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call(task);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CacheException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Runs a task, counting it among the operations in flight.
+     */
+    private <T> T call(Callable<T> task) throws Exception {
+        if (autoscaler == null) {
+            return task.call();
+        }
+
+        autoscaler.begin();
+        try {
+            return task.call();
+        } finally {
+            autoscaler.end();
+        }
+    }
+
+    /**
+     * Waits for a result on behalf of the synchronous API.
+     *
+     * @param future the pending result.
+     * @return the result.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted while waiting for Memcached", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CacheException(cause);
+        }
+    }
+
+    /**
+     * The executor of the asynchronous API: the worker threads if configured,
+     * otherwise a pool as large as the connections pool, created on first use.
+     */
+    private Executor asyncWorkers() {
+        if (workers != null) {
+            return workers;
+        }
+
+        ExecutorService executor = asyncWorkers;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncWorkers;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(configuration.getMaxConn(),
+                            new NamedThreadFactory("mybatis-memcached-async"));
+                    asyncWorkers = executor;
+                }
+            }
+        }
+        return executor;
+    }
 
     @Override
     protected void finalize() throws Throwable {
-        SockIOPool.getInstance().shutDown();
+        scheduler.shutdownNow();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (asyncWorkers != null) {
+            asyncWorkers.shutdownNow();
+        }
+        if (client != null) {
+            client.shutdown();
+        }
         super.finalize();
     }
 
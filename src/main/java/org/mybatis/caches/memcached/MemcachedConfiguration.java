@@ -30,6 +30,16 @@ final class MemcachedConfiguration {
      */
     private String keyPrefix;
 
+    /**
+     * How the key digest is encoded.
+     */
+    private KeyFormat keyFormat;
+
+    /**
+     * How many bytes of the key digest are kept.
+     */
+    private int keyDigestLength;
+
     /**
      * The Memcached servers.
      */
@@ -53,11 +63,213 @@ final class MemcachedConfiguration {
     // into rotation
     private boolean nagle; // enable/disable Nagle's algorithm
     private boolean aliveCheck; // disable health check of socket on checkout
+    /**
+     * Whether the connections are opened in background, the cache misses meanwhile.
+     */
+    private boolean backgroundStart;
+
+    /**
+     * How the client talks to the servers.
+     */
+    private TransportType transport;
+
+    /**
+     * Whether the socket transport gives each thread the connection it used last.
+     */
+    private boolean connectionAffinity;
+
+    /**
+     * The max connections per server the autoscaler can grow the pool to, 0 disables it.
+     */
+    private int autoscaleMaxConn;
+
+    /**
+     * How often (in seconds) the autoscaler resizes the pool.
+     */
+    private int autoscaleInterval;
+
+    /**
+     * The threads that talk to Memcached on behalf of the callers, 0 to use
+     * the calling threads.
+     */
+    private int workerThreads;
+
     /**
      * The Memcached entries expiration time.
      */
     private int expiration;
 
+    /**
+     * The shortest expiration (in seconds) the adaptive expiration picks.
+     */
+    private int expirationMin;
+
+    /**
+     * The longest expiration (in seconds) the adaptive expiration picks, 0 disables it.
+     */
+    private int expirationMax;
+
+    /**
+     * Values larger than this (in bytes) are stored in several items, 0 disables it.
+     */
+    private int chunkSize;
+
+    /**
+     * Max entries per cache id kept in the near cache, 0 disables it.
+     */
+    private int nearCacheSize;
+
+    /**
+     * The near cache entries time to live (in milliseconds).
+     */
+    private int nearCacheTtl;
+
+    /**
+     * Operations slower than this (in milliseconds) are logged, 0 disables it.
+     */
+    private int slowLogThreshold;
+
+    /**
+     * How many slow operations are kept.
+     */
+    private int slowLogSize;
+
+    /**
+     * 1 every this many operations is logged whatever its latency, 0 disables it.
+     */
+    private int slowLogSampleRate;
+
+    /**
+     * The directory where the local tier segments are stored, null disables it.
+     */
+    private String diskTierDirectory;
+
+    /**
+     * The size of every local tier segment (in bytes).
+     */
+    private int diskTierSegmentSize;
+
+    /**
+     * How many local tier segments are used.
+     */
+    private int diskTierSegments;
+
+    /**
+     * The local tier entries time to live (in seconds).
+     */
+    private int diskTierTtl;
+
+    /**
+     * The cache ids recent misses are recorded for.
+     */
+    private String[] negativeCacheIds;
+
+    /**
+     * Max recent misses recorded per cache id.
+     */
+    private int negativeCacheSize;
+
+    /**
+     * How long a miss is remembered (in milliseconds).
+     */
+    private int negativeCacheTtl;
+
+    /**
+     * The lookups a result has to be looked up before being written, 0 disables the admission policy.
+     */
+    private int admissionFrequency;
+
+    /**
+     * The query time (in milliseconds) above which a result is written anyway.
+     */
+    private int admissionCost;
+
+    /**
+     * The distinct keys the admission policy keeps track of.
+     */
+    private int admissionSize;
+
+    /**
+     * The file where the hot keys snapshot is stored, null disables it.
+     */
+    private String hotKeysFile;
+
+    /**
+     * Max keys per cache id recorded in the hot keys snapshot.
+     */
+    private int hotKeysSize;
+
+    /**
+     * The interval between hot keys snapshots (in seconds).
+     */
+    private int hotKeysSnapshotInterval;
+
+    /**
+     * Max keys per second prefetched at startup.
+     */
+    private int hotKeysPrefetchRate;
+
+    /**
+     * Flag to invalidate the entries by the tables they were read from.
+     */
+    private boolean tagging;
+
+    /**
+     * The tables of the statements whose SQL can't tell them, as {@code statementId=table1 table2}.
+     */
+    private String[] taggingTables;
+
+    /**
+     * Max keys tracked per namespace.
+     */
+    private int groupMaxSize;
+
+    /**
+     * How often the groups are compacted, in seconds.
+     */
+    private int groupCompactionInterval;
+
+    /**
+     * Flag to account the cost of the cached results per statement.
+     */
+    private boolean statementStats;
+
+    /**
+     * The cache ids whose result lists are stored as the keys of their entities.
+     */
+    private String[] normalizedIds;
+
+    /**
+     * The property identifying the entities of the normalized lists.
+     */
+    private String entityIdProperty;
+
+    /**
+     * Results at least this large (in bytes) are stored once per content, 0 disables it.
+     */
+    private int dedupeMinSize;
+
+    /**
+     * Max gets in progress, beyond which gets miss right away; 0 is unbounded.
+     */
+    private int sheddingMaxGets;
+
+    /**
+     * Max puts in progress, beyond which puts are dropped; 0 is unbounded.
+     */
+    private int sheddingMaxPuts;
+
+    /**
+     * How often the servers statistics are collected, in seconds; 0 disables it.
+     */
+    private int statsInterval;
+
+    /**
+     * How long before their expiration, in seconds, the untagged entries are
+     * refreshed by a single reader; 0 disables it.
+     */
+    private int refreshAhead;
+
     /**
      * @return the keyPrefix
      */
@@ -72,6 +284,26 @@ final class MemcachedConfiguration {
         this.keyPrefix = keyPrefix;
     }
 
+    public KeyFormat getKeyFormat() {
+        return keyFormat;
+    }
+
+    public void setKeyFormat(KeyFormat keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    public int getKeyDigestLength() {
+        return keyDigestLength;
+    }
+
+    /**
+     * @param keyDigestLength the digest bytes to keep, bounded between 8 (too
+     *        many collisions below) and 20 (the whole SHA-1 digest)
+     */
+    public void setKeyDigestLength(int keyDigestLength) {
+        this.keyDigestLength = Math.max(8, Math.min(20, keyDigestLength));
+    }
+
     public String[] getServers() {
         return servers;
     }
@@ -176,6 +408,14 @@ final class MemcachedConfiguration {
         this.aliveCheck = aliveCheck;
     }
 
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
     /**
      * @return the expiration
      */
@@ -190,12 +430,343 @@ final class MemcachedConfiguration {
         this.expiration = expiration;
     }
 
+    public int getExpirationMin() {
+        return expirationMin;
+    }
+
+    public void setExpirationMin(int expirationMin) {
+        this.expirationMin = expirationMin;
+    }
+
+    public int getExpirationMax() {
+        return expirationMax;
+    }
+
+    public void setExpirationMax(int expirationMax) {
+        this.expirationMax = expirationMax;
+    }
+
+    public boolean isBackgroundStart() {
+        return backgroundStart;
+    }
+
+    public void setBackgroundStart(boolean backgroundStart) {
+        this.backgroundStart = backgroundStart;
+    }
+
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    public void setTransport(TransportType transport) {
+        this.transport = transport;
+    }
+
+    public boolean isConnectionAffinity() {
+        return connectionAffinity;
+    }
+
+    public void setConnectionAffinity(boolean connectionAffinity) {
+        this.connectionAffinity = connectionAffinity;
+    }
+
+    public int getAutoscaleMaxConn() {
+        return autoscaleMaxConn;
+    }
+
+    public void setAutoscaleMaxConn(int autoscaleMaxConn) {
+        this.autoscaleMaxConn = autoscaleMaxConn;
+    }
+
+    public int getAutoscaleInterval() {
+        return autoscaleInterval;
+    }
+
+    public void setAutoscaleInterval(int autoscaleInterval) {
+        this.autoscaleInterval = autoscaleInterval;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    public int getNearCacheTtl() {
+        return nearCacheTtl;
+    }
+
+    public void setNearCacheTtl(int nearCacheTtl) {
+        this.nearCacheTtl = nearCacheTtl;
+    }
+
+    public int getSlowLogThreshold() {
+        return slowLogThreshold;
+    }
+
+    public void setSlowLogThreshold(int slowLogThreshold) {
+        this.slowLogThreshold = slowLogThreshold;
+    }
+
+    public int getSlowLogSize() {
+        return slowLogSize;
+    }
+
+    public void setSlowLogSize(int slowLogSize) {
+        this.slowLogSize = slowLogSize;
+    }
+
+    public int getSlowLogSampleRate() {
+        return slowLogSampleRate;
+    }
+
+    public void setSlowLogSampleRate(int slowLogSampleRate) {
+        this.slowLogSampleRate = slowLogSampleRate;
+    }
+
+    public String getDiskTierDirectory() {
+        return diskTierDirectory;
+    }
+
+    public void setDiskTierDirectory(String diskTierDirectory) {
+        this.diskTierDirectory = diskTierDirectory;
+    }
+
+    public int getDiskTierSegmentSize() {
+        return diskTierSegmentSize;
+    }
+
+    public void setDiskTierSegmentSize(int diskTierSegmentSize) {
+        this.diskTierSegmentSize = diskTierSegmentSize;
+    }
+
+    public int getDiskTierSegments() {
+        return diskTierSegments;
+    }
+
+    public void setDiskTierSegments(int diskTierSegments) {
+        this.diskTierSegments = diskTierSegments;
+    }
+
+    public int getDiskTierTtl() {
+        return diskTierTtl;
+    }
+
+    public void setDiskTierTtl(int diskTierTtl) {
+        this.diskTierTtl = diskTierTtl;
+    }
+
+    public String[] getNegativeCacheIds() {
+        return negativeCacheIds;
+    }
+
+    public void setNegativeCacheIds(String[] negativeCacheIds) {
+        this.negativeCacheIds = negativeCacheIds;
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    public void setNegativeCacheSize(int negativeCacheSize) {
+        this.negativeCacheSize = negativeCacheSize;
+    }
+
+    public int getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public void setNegativeCacheTtl(int negativeCacheTtl) {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    public int getAdmissionFrequency() {
+        return admissionFrequency;
+    }
+
+    public void setAdmissionFrequency(int admissionFrequency) {
+        this.admissionFrequency = admissionFrequency;
+    }
+
+    public int getAdmissionCost() {
+        return admissionCost;
+    }
+
+    public void setAdmissionCost(int admissionCost) {
+        this.admissionCost = admissionCost;
+    }
+
+    public int getAdmissionSize() {
+        return admissionSize;
+    }
+
+    public void setAdmissionSize(int admissionSize) {
+        this.admissionSize = admissionSize;
+    }
+
+    public String getHotKeysFile() {
+        return hotKeysFile;
+    }
+
+    public void setHotKeysFile(String hotKeysFile) {
+        this.hotKeysFile = hotKeysFile;
+    }
+
+    public int getHotKeysSize() {
+        return hotKeysSize;
+    }
+
+    public void setHotKeysSize(int hotKeysSize) {
+        this.hotKeysSize = hotKeysSize;
+    }
+
+    public int getHotKeysSnapshotInterval() {
+        return hotKeysSnapshotInterval;
+    }
+
+    public void setHotKeysSnapshotInterval(int hotKeysSnapshotInterval) {
+        this.hotKeysSnapshotInterval = hotKeysSnapshotInterval;
+    }
+
+    public int getHotKeysPrefetchRate() {
+        return hotKeysPrefetchRate;
+    }
+
+    public void setHotKeysPrefetchRate(int hotKeysPrefetchRate) {
+        this.hotKeysPrefetchRate = hotKeysPrefetchRate;
+    }
+
+    public boolean isTagging() {
+        return tagging;
+    }
+
+    public void setTagging(boolean tagging) {
+        this.tagging = tagging;
+    }
+
+    public String[] getTaggingTables() {
+        return taggingTables;
+    }
+
+    public void setTaggingTables(String[] taggingTables) {
+        this.taggingTables = taggingTables;
+    }
+
+    public int getGroupMaxSize() {
+        return groupMaxSize;
+    }
+
+    public void setGroupMaxSize(int groupMaxSize) {
+        this.groupMaxSize = groupMaxSize;
+    }
+
+    public int getGroupCompactionInterval() {
+        return groupCompactionInterval;
+    }
+
+    public void setGroupCompactionInterval(int groupCompactionInterval) {
+        this.groupCompactionInterval = groupCompactionInterval;
+    }
+
+    public boolean isStatementStats() {
+        return statementStats;
+    }
+
+    public void setStatementStats(boolean statementStats) {
+        this.statementStats = statementStats;
+    }
+
+    public String[] getNormalizedIds() {
+        return normalizedIds;
+    }
+
+    public void setNormalizedIds(String[] normalizedIds) {
+        this.normalizedIds = normalizedIds;
+    }
+
+    public String getEntityIdProperty() {
+        return entityIdProperty;
+    }
+
+    public void setEntityIdProperty(String entityIdProperty) {
+        this.entityIdProperty = entityIdProperty;
+    }
+
+    public int getDedupeMinSize() {
+        return dedupeMinSize;
+    }
+
+    public void setDedupeMinSize(int dedupeMinSize) {
+        this.dedupeMinSize = dedupeMinSize;
+    }
+
+    public int getSheddingMaxGets() {
+        return sheddingMaxGets;
+    }
+
+    public void setSheddingMaxGets(int sheddingMaxGets) {
+        this.sheddingMaxGets = sheddingMaxGets;
+    }
+
+    public int getSheddingMaxPuts() {
+        return sheddingMaxPuts;
+    }
+
+    public void setSheddingMaxPuts(int sheddingMaxPuts) {
+        this.sheddingMaxPuts = sheddingMaxPuts;
+    }
+
+    public int getStatsInterval() {
+        return statsInterval;
+    }
+
+    public void setStatsInterval(int statsInterval) {
+        this.statsInterval = statsInterval;
+    }
+
+    public int getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    public void setRefreshAhead(int refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
     @Override
     public String toString() {
-        return "MemcachedConfiguration [keyPrefix=" + keyPrefix + ", servers=" + Arrays.toString(servers) + ", initConn=" + initConn + ", minConn="
+        return "MemcachedConfiguration [keyPrefix=" + keyPrefix + ", keyFormat=" + keyFormat + ", keyDigestLength=" + keyDigestLength + ", servers=" + Arrays.toString(servers) + ", initConn=" + initConn + ", minConn="
                 + minConn + ", maxConn=" + maxConn + ", maxIdle=" + maxIdle + ", maxBusyTime=" + maxBusyTime + ", maintSleep=" + maintSleep
                 + ", socketTO=" + socketTO + ", socketConnectTO=" + socketConnectTO + ", failover=" + failover + ", failback=" + failback
-                + ", nagle=" + nagle + ", aliveCheck=" + aliveCheck + ", expiration=" + expiration + "]";
+                + ", nagle=" + nagle + ", aliveCheck=" + aliveCheck
+                + ", backgroundStart=" + backgroundStart + ", transport=" + transport + ", connectionAffinity=" + connectionAffinity
+                + ", autoscaleMaxConn=" + autoscaleMaxConn + ", autoscaleInterval=" + autoscaleInterval + ", workerThreads=" + workerThreads + ", expiration=" + expiration
+                + ", expirationMin=" + expirationMin + ", expirationMax=" + expirationMax
+                + ", chunkSize=" + chunkSize
+                + ", nearCacheSize=" + nearCacheSize + ", nearCacheTtl=" + nearCacheTtl + ", slowLogThreshold=" + slowLogThreshold
+                + ", slowLogSize=" + slowLogSize + ", slowLogSampleRate=" + slowLogSampleRate + ", diskTierDirectory=" + diskTierDirectory
+                + ", diskTierSegmentSize=" + diskTierSegmentSize + ", diskTierSegments=" + diskTierSegments + ", diskTierTtl=" + diskTierTtl
+                + ", negativeCacheIds=" + Arrays.toString(negativeCacheIds)
+                + ", negativeCacheSize=" + negativeCacheSize + ", negativeCacheTtl=" + negativeCacheTtl
+                + ", admissionFrequency=" + admissionFrequency + ", admissionCost=" + admissionCost
+                + ", admissionSize=" + admissionSize + ", hotKeysFile=" + hotKeysFile
+                + ", hotKeysSize=" + hotKeysSize + ", hotKeysSnapshotInterval=" + hotKeysSnapshotInterval
+                + ", hotKeysPrefetchRate=" + hotKeysPrefetchRate + ", tagging=" + tagging
+                + ", taggingTables=" + Arrays.toString(taggingTables) + ", groupMaxSize=" + groupMaxSize
+                + ", groupCompactionInterval=" + groupCompactionInterval + ", statementStats=" + statementStats
+                + ", normalizedIds=" + Arrays.toString(normalizedIds) + ", entityIdProperty=" + entityIdProperty
+                + ", dedupeMinSize=" + dedupeMinSize
+                + ", sheddingMaxGets=" + sheddingMaxGets + ", sheddingMaxPuts=" + sheddingMaxPuts
+                + ", statsInterval=" + statsInterval + ", refreshAhead=" + refreshAhead + "]";
     }
 
 }
@@ -40,6 +40,11 @@ final class MemcachedConfigurationBuilder {
      */
     private static final String MEMCACHED_RESOURCE = "memcached.properties";
 
+    /**
+     * The prefix of the system properties overriding the properties file.
+     */
+    private static final String SYSTEM_PROPERTIES_PREFIX = "org.mybatis.caches.memcached.";
+
     private final String memcachedPropertiesFilename;
 
     /**
@@ -54,11 +59,21 @@ final class MemcachedConfigurationBuilder {
         memcachedPropertiesFilename = System.getProperty(SYSTEM_PROPERTY_MEMCACHED_PROPERTIES_FILENAME, MEMCACHED_RESOURCE);
 
         settersRegistry.add(new StringPropertySetter("org.mybatis.caches.memcached.keyprefix", "keyPrefix", "_mybatis_"));
+        settersRegistry.add(new KeyFormatSetter());
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.keydigestlength", "keyDigestLength", 20));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.expiration", "expiration", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.expiration.min", "expirationMin", 60));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.expiration.max", "expirationMax", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.chunksize", "chunkSize", 0));
         settersRegistry.add(new StringArrayPropertySetter("org.mybatis.caches.memcached.servers", "servers", new String[]{"localhost:11211"}));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.initconn", "initConn", 10));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.minConn", "minConn", 5));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.maxConn", "maxConn", 100));
+        settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.backgroundstart", "backgroundStart", false));
+        settersRegistry.add(new TransportTypeSetter());
+        settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.connectionaffinity", "connectionAffinity", true));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.autoscale.maxconn", "autoscaleMaxConn", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.autoscale.interval", "autoscaleInterval", 30));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.maxIdle", "maxIdle", 1000 * 60 * 5));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.maxbusytime", "maxBusyTime", 1000 * 30));
         settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.socketto", "socketTO", 1000 * 3));
@@ -67,6 +82,38 @@ final class MemcachedConfigurationBuilder {
         settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.failback", "failback", true));
         settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.nagle", "nagle", false));
         settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.alivecheck", "aliveCheck", false));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.workerthreads", "workerThreads", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.nearcache.size", "nearCacheSize", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.nearcache.ttl", "nearCacheTtl", 1000 * 5));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.slowlog.threshold", "slowLogThreshold", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.slowlog.size", "slowLogSize", 1000));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.slowlog.samplerate", "slowLogSampleRate", 0));
+        settersRegistry.add(new StringPropertySetter("org.mybatis.caches.memcached.disktier.directory", "diskTierDirectory", null));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.disktier.segmentsize", "diskTierSegmentSize", 1024 * 1024 * 64));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.disktier.segments", "diskTierSegments", 8));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.disktier.ttl", "diskTierTtl", 60 * 5));
+        settersRegistry.add(new StringArrayPropertySetter("org.mybatis.caches.memcached.negativecache.ids", "negativeCacheIds", new String[0]));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.negativecache.size", "negativeCacheSize", 10000));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.negativecache.ttl", "negativeCacheTtl", 1000));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.admission.frequency", "admissionFrequency", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.admission.cost", "admissionCost", 50));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.admission.size", "admissionSize", 100000));
+        settersRegistry.add(new StringPropertySetter("org.mybatis.caches.memcached.hotkeys.file", "hotKeysFile", null));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.hotkeys.size", "hotKeysSize", 1000));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.hotkeys.snapshotinterval", "hotKeysSnapshotInterval", 60));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.hotkeys.prefetchrate", "hotKeysPrefetchRate", 1000));
+        settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.tagging", "tagging", false));
+        settersRegistry.add(new StringArrayPropertySetter("org.mybatis.caches.memcached.tagging.tables", "taggingTables", new String[0]));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.group.maxsize", "groupMaxSize", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.group.compactioninterval", "groupCompactionInterval", 0));
+        settersRegistry.add(new BooleanPropertySetter("org.mybatis.caches.memcached.statementstats", "statementStats", false));
+        settersRegistry.add(new StringArrayPropertySetter("org.mybatis.caches.memcached.normalize.ids", "normalizedIds", new String[0]));
+        settersRegistry.add(new StringPropertySetter("org.mybatis.caches.memcached.normalize.idproperty", "entityIdProperty", "id"));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.dedupe.minsize", "dedupeMinSize", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.shedding.maxgets", "sheddingMaxGets", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.shedding.maxputs", "sheddingMaxPuts", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.stats.interval", "statsInterval", 0));
+        settersRegistry.add(new IntegerPropertySetter("org.mybatis.caches.memcached.refresh.ahead", "refreshAhead", 0));
 
     }
 
@@ -115,6 +162,13 @@ final class MemcachedConfigurationBuilder {
             }
         }
 
+        // system properties override the file, i.e. to point the tests to another server
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(SYSTEM_PROPERTIES_PREFIX)) {
+                config.setProperty(name, System.getProperty(name));
+            }
+        }
+
         MemcachedConfiguration memcachedConfiguration = new MemcachedConfiguration();
 
         for (AbstractPropertySetter<?> setter : settersRegistry) {
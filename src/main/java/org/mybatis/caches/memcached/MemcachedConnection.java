@@ -0,0 +1,173 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A socket to a Memcached server speaking the text protocol, used by one
+ * thread at a time.
+ */
+final class MemcachedConnection {
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  private static final byte[] CRLF = { '\r', '\n' };
+
+  private final Socket socket;
+
+  private final InputStream input;
+
+  private final OutputStream output;
+
+  private final AtomicBoolean inUse = new AtomicBoolean();
+
+  /**
+   * When the connection was last taken or released, as of {@link System#nanoTime()}.
+   */
+  private volatile long lastUsed = System.nanoTime();
+
+  public MemcachedConnection(InetSocketAddress address, int socketTimeout, int connectTimeout, boolean nagle)
+      throws IOException {
+    socket = new Socket();
+    try {
+      socket.setTcpNoDelay(!nagle);
+      socket.setSoTimeout(socketTimeout);
+      socket.connect(address, connectTimeout);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    input = new BufferedInputStream(socket.getInputStream());
+    output = new BufferedOutputStream(socket.getOutputStream());
+  }
+
+  /**
+   * Takes the connection if nobody is using it.
+   *
+   * @return true if taken.
+   */
+  public boolean acquire() {
+    if (!inUse.get() && inUse.compareAndSet(false, true)) {
+      lastUsed = System.nanoTime();
+      return true;
+    }
+    return false;
+  }
+
+  public void release() {
+    lastUsed = System.nanoTime();
+    inUse.set(false);
+  }
+
+  /**
+   * @return true once closed, i.e. discarded from its pool.
+   */
+  public boolean isClosed() {
+    return socket.isClosed();
+  }
+
+  /**
+   * @return true if in use.
+   */
+  public boolean isInUse() {
+    return inUse.get();
+  }
+
+  /**
+   * @return for how long (in nanoseconds) the connection has been idle, or busy if in use.
+   */
+  public long sinceLastUse() {
+    return System.nanoTime() - lastUsed;
+  }
+
+  /**
+   * Checks that the server still answers on this connection.
+   *
+   * @return true if alive.
+   */
+  public boolean isAlive() {
+    try {
+      writeLine("version");
+      flush();
+      return readLine().startsWith("VERSION");
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public void writeLine(String line) throws IOException {
+    output.write(line.getBytes(US_ASCII));
+    output.write(CRLF);
+  }
+
+  public void writeData(byte[] data) throws IOException {
+    output.write(data);
+    output.write(CRLF);
+  }
+
+  public void flush() throws IOException {
+    output.flush();
+  }
+
+  public String readLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int read;
+    while ((read = input.read()) != '\n') {
+      if (read == -1) {
+        throw new EOFException("Connection closed by the server");
+      }
+      if (read != '\r') {
+        line.append((char) read);
+      }
+    }
+    return line.toString();
+  }
+
+  public byte[] readData(int length) throws IOException {
+    byte[] data = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int read = input.read(data, offset, length - offset);
+      if (read == -1) {
+        throw new EOFException("Connection closed by the server");
+      }
+      offset += read;
+    }
+    if (input.read() != '\r' || input.read() != '\n') {
+      throw new IOException("Data block not terminated by CRLF");
+    }
+    return data;
+  }
+
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing to do
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.List;
+
+/**
+ * Diagnostics of the Memcached client, available through
+ * {@link MemcachedCache#getDiagnostics()} and registered in the platform
+ * MBean server as {@code org.mybatis.caches.memcached:type=Diagnostics}.
+ */
+public final class MemcachedDiagnostics implements MemcachedDiagnosticsMBean {
+
+  static final String OBJECT_NAME = "org.mybatis.caches.memcached:type=Diagnostics";
+
+  private final SlowOperationLog slowOperations;
+
+  private final StatementStats statementStats;
+
+  private final ServerStatsCollector serverStats;
+
+  private final AdmissionPolicy admission;
+
+  private final MemcachedClientWrapper client;
+
+  MemcachedDiagnostics(SlowOperationLog slowOperations, StatementStats statementStats,
+      ServerStatsCollector serverStats, AdmissionPolicy admission, MemcachedClientWrapper client) {
+    this.slowOperations = slowOperations;
+    this.statementStats = statementStats;
+    this.serverStats = serverStats;
+    this.admission = admission;
+    this.client = client;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] dumpSlowOperations() {
+    if (slowOperations == null) {
+      return new String[0];
+    }
+
+    List<OperationTrace> traces = slowOperations.dump();
+    String[] dump = new String[traces.size()];
+    for (int i = 0; i < dump.length; i++) {
+      dump[i] = traces.get(i).toString();
+    }
+    return dump;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] dumpStatementStats() {
+    if (statementStats == null) {
+      return new String[0];
+    }
+
+    List<String> dump = statementStats.dump();
+    return dump.toArray(new String[dump.size()]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void resetStatementStats() {
+    if (statementStats != null) {
+      statementStats.reset();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] dumpServerStats() {
+    if (serverStats == null) {
+      return new String[0];
+    }
+
+    List<String> dump = serverStats.dump();
+    return dump.toArray(new String[dump.size()]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getServerEvictions() {
+    return serverStats == null ? 0 : serverStats.getEvictions();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getRejectedWrites() {
+    return admission == null ? 0 : admission.getRejected();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getShedGets() {
+    return client.getShedGets();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getShedPuts() {
+    return client.getShedPuts();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMaxConn() {
+    return client.getMaxConn();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void reloadPool() {
+    client.reloadPool();
+  }
+
+}
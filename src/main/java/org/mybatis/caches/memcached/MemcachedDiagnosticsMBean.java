@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+/**
+ * JMX view of the Memcached client diagnostics.
+ */
+public interface MemcachedDiagnosticsMBean {
+
+  /**
+   * Lists the latest slow or sampled operations, oldest first.
+   *
+   * @return one line per operation.
+   */
+  String[] dumpSlowOperations();
+
+  /**
+   * Lists the cost of the cached results per statement, the statements moving
+   * the most bytes first.
+   *
+   * @return one line per statement, empty if the statement stats are disabled.
+   */
+  String[] dumpStatementStats();
+
+  /**
+   * Forgets the statement stats collected so far.
+   */
+  void resetStatementStats();
+
+  /**
+   * Lists the latest collected servers statistics, per server and per slab
+   * class, followed by the tuning hints.
+   *
+   * @return one line per server, slab class or hint, empty if the statistics are not collected.
+   */
+  String[] dumpServerStats();
+
+  /**
+   * @return the evictions of all the servers as of the latest collection, 0 if the statistics are not collected.
+   */
+  long getServerEvictions();
+
+  /**
+   * Counts the results the admission policy didn't write to Memcached.
+   *
+   * @return the rejected results, 0 if the admission policy is disabled.
+   */
+  long getRejectedWrites();
+
+  /**
+   * @return the gets that missed right away as too many were in progress, 0 if unbounded.
+   */
+  long getShedGets();
+
+  /**
+   * @return the puts dropped as too many were in progress, 0 if unbounded.
+   */
+  long getShedPuts();
+
+  /**
+   * @return the current max connections per server.
+   */
+  int getMaxConn();
+
+  /**
+   * Reads again the connections pool settings from the properties file and
+   * replaces the pool with one using them.
+   */
+  void reloadPool();
+
+}
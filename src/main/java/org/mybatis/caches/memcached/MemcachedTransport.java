@@ -0,0 +1,200 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Memcached operations the client relies on, whatever library or
+ * protocol performs them.
+ *
+ * Like the Memcached client libraries, implementations don't throw on
+ * network failures: they log them and report a miss or a failed store.
+ */
+interface MemcachedTransport {
+
+  /**
+   * @param key the item key.
+   * @return the item value, null if missing.
+   */
+  Object get(String key);
+
+  /**
+   * @param keys the items keys.
+   * @return the values of the found items, by key.
+   */
+  Map<String, Object> getMulti(String[] keys);
+
+  /**
+   * @param key the item key.
+   * @return the item value along with its CAS unique, null if missing.
+   */
+  CasValue gets(String key);
+
+  /**
+   * Reads an item along with its metadata; once its remaining TTL drops below
+   * the given threshold, a single reader is elected to refresh it.
+   *
+   * @param key the item key.
+   * @param recache the remaining TTL, in seconds, below which the item is refreshed.
+   * @return the item value and metadata, null if missing; never elected if the metadata is not supported.
+   */
+  MetaValue getWithMeta(String key, int recache);
+
+  /**
+   * Checks which items exist, without transferring their values when possible.
+   *
+   * @param keys the items keys.
+   * @return the keys of the found items, null if any server failed, as the
+   *         missing items are unknown then.
+   */
+  Set<String> exists(String[] keys);
+
+  /**
+   * @param key the item key.
+   * @param value the item value.
+   * @param expiration the item expiration, in seconds.
+   * @return true if stored.
+   */
+  boolean set(String key, byte[] value, int expiration);
+
+  /**
+   * Stores an item only if missing.
+   *
+   * @param key the item key.
+   * @param value the item value.
+   * @param expiration the item expiration, in seconds.
+   * @return true if stored.
+   */
+  boolean add(String key, byte[] value, int expiration);
+
+  /**
+   * Stores an item only if not modified since it was read.
+   *
+   * @param key the item key.
+   * @param value the item value.
+   * @param cas the CAS unique of the item when it was read.
+   * @return true if stored.
+   */
+  boolean cas(String key, byte[] value, long cas);
+
+  /**
+   * Updates the expiration of an item without fetching it.
+   *
+   * @param key the item key.
+   * @param expiration the new item expiration, in seconds.
+   * @return true if the item exists, false if missing or if touching is not supported.
+   */
+  boolean touch(String key, int expiration);
+
+  /**
+   * @param key the item key.
+   * @return true if deleted.
+   */
+  boolean delete(String key);
+
+  /**
+   * Reads the statistics of every server.
+   *
+   * @param group the statistics group, {@code slabs} or {@code items}, null for the general ones.
+   * @return the statistics by server then by name, missing the servers that didn't answer.
+   */
+  Map<String, Map<String, String>> stats(String group);
+
+  /**
+   * Changes the per server max connections of the current pool.
+   *
+   * @param maxConn the new per server max connections.
+   * @return true if resized, false if the pool can't be resized in place.
+   */
+  boolean resize(int maxConn);
+
+  /**
+   * Closes the connections.
+   */
+  void shutdown();
+
+  /**
+   * An item value along with its CAS unique.
+   */
+  final class CasValue {
+
+    private final Object value;
+
+    private final long cas;
+
+    public CasValue(Object value, long cas) {
+      this.value = value;
+      this.cas = cas;
+    }
+
+    public Object getValue() {
+      return value;
+    }
+
+    public long getCas() {
+      return cas;
+    }
+
+  }
+
+  /**
+   * An item value along with its CAS unique, its remaining TTL and whether
+   * the reader has been elected to refresh it.
+   */
+  final class MetaValue {
+
+    private final Object value;
+
+    private final long cas;
+
+    private final int ttl;
+
+    private final boolean win;
+
+    public MetaValue(Object value, long cas, int ttl, boolean win) {
+      this.value = value;
+      this.cas = cas;
+      this.ttl = ttl;
+      this.win = win;
+    }
+
+    public Object getValue() {
+      return value;
+    }
+
+    public long getCas() {
+      return cas;
+    }
+
+    /**
+     * @return the remaining TTL, in seconds, -1 if never expiring or unknown.
+     */
+    public int getTtl() {
+      return ttl;
+    }
+
+    /**
+     * @return true if this reader, and no other, should refresh the item.
+     */
+    public boolean isWin() {
+      return win;
+    }
+
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded, short living, in-process view of the Memcached entries,
+ * partitioned by cache id.
+ *
+ * Entries are kept in their serialized form, so every hit returns a private
+ * copy exactly as a Memcached hit does; since other nodes can't invalidate it,
+ * the TTL bounds how stale an entry can be.
+ */
+final class NearCache {
+
+  /**
+   * Max entries per cache id.
+   */
+  private final int capacity;
+
+  /**
+   * How long an entry is considered valid, in milliseconds.
+   */
+  private final long ttl;
+
+  private final ConcurrentMap<String, Region> regions = new ConcurrentHashMap<String, Region>();
+
+  public NearCache(int capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+  }
+
+  public byte[] get(String id, String key) {
+    Region region = regions.get(id);
+    if (region == null) {
+      return null;
+    }
+
+    region.lock.lock();
+    try {
+      CachedValue entry = region.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expiresAt < System.currentTimeMillis()) {
+        region.remove(key);
+        return null;
+      }
+      return entry.value;
+    } finally {
+      region.lock.unlock();
+    }
+  }
+
+  public void put(String id, String key, byte[] value) {
+    Region region = regions.get(id);
+    if (region == null) {
+      Region newRegion = new Region(capacity);
+      region = regions.putIfAbsent(id, newRegion);
+      if (region == null) {
+        region = newRegion;
+      }
+    }
+
+    region.lock.lock();
+    try {
+      region.put(key, new CachedValue(value, System.currentTimeMillis() + ttl));
+    } finally {
+      region.lock.unlock();
+    }
+  }
+
+  public void remove(String id, String key) {
+    Region region = regions.get(id);
+    if (region != null) {
+      region.lock.lock();
+      try {
+        region.remove(key);
+      } finally {
+        region.lock.unlock();
+      }
+    }
+  }
+
+  public void clear(String id) {
+    regions.remove(id);
+  }
+
+  private static final class CachedValue {
+
+    final byte[] value;
+
+    final long expiresAt;
+
+    CachedValue(byte[] value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+  /**
+   * LRU map of the entries of a single cache id, guarded by its lock rather
+   * than by a monitor not to pin virtual threads.
+   */
+  private static final class Region extends LinkedHashMap<String, CachedValue> {
+
+    private static final long serialVersionUID = 1L;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    private final int capacity;
+
+    Region(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+      return size() > capacity;
+    }
+
+  }
+
+}
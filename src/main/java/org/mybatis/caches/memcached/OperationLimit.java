@@ -0,0 +1,66 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the operations of a kind in progress: beyond the bound, operations
+ * are shed right away rather than queued behind the busy connections, so a
+ * slow Memcached never holds the application threads.
+ */
+final class OperationLimit {
+
+  private final Semaphore permits;
+
+  private final AtomicLong shed = new AtomicLong();
+
+  /**
+   * @param max max operations in progress.
+   */
+  public OperationLimit(int max) {
+    permits = new Semaphore(max);
+  }
+
+  /**
+   * Starts an operation, never waits.
+   *
+   * @return true if the operation can proceed, false if it has to be shed.
+   */
+  public boolean tryAcquire() {
+    if (permits.tryAcquire()) {
+      return true;
+    }
+    shed.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Completes an operation started by {@link #tryAcquire()}.
+   */
+  public void release() {
+    permits.release();
+  }
+
+  /**
+   * @return how many operations have been shed.
+   */
+  public long getShed() {
+    return shed.get();
+  }
+
+}
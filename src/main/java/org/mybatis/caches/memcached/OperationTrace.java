@@ -0,0 +1,167 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and sizes collected while performing a single cache operation.
+ *
+ * Parts of an operation may run concurrently on different workers, so the
+ * accumulated figures are atomic.
+ */
+final class OperationTrace {
+
+  /**
+   * Shared trace of the operations nobody looks at, ignores everything.
+   */
+  static final OperationTrace DISABLED = new OperationTrace(null, null, null, null, null);
+
+  private final long startedAt = System.currentTimeMillis();
+
+  private final long start = System.nanoTime();
+
+  private final String type;
+
+  private final String id;
+
+  private final String key;
+
+  private final String statement;
+
+  private final String server;
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final AtomicLong serializationTime = new AtomicLong();
+
+  private final AtomicLong networkTime = new AtomicLong();
+
+  private final AtomicInteger casRetries = new AtomicInteger();
+
+  private volatile long elapsed;
+
+  OperationTrace(String type, String id, String key, String server) {
+    this(type, id, key, null, server);
+  }
+
+  /**
+   * @param statement the id of the statement whose result is read or written, null if unknown.
+   */
+  OperationTrace(String type, String id, String key, String statement, String server) {
+    this.type = type;
+    this.id = id;
+    this.key = key;
+    this.statement = statement;
+    this.server = server;
+  }
+
+  public boolean isEnabled() {
+    return this != DISABLED;
+  }
+
+  public void bytes(long count) {
+    if (isEnabled()) {
+      bytes.addAndGet(count);
+    }
+  }
+
+  /**
+   * @param since when the serialization started, as {@link System#nanoTime()}.
+   */
+  public void serialization(long since) {
+    if (isEnabled()) {
+      serializationTime.addAndGet(System.nanoTime() - since);
+    }
+  }
+
+  /**
+   * @param since when the request was sent, as {@link System#nanoTime()}.
+   */
+  public void network(long since) {
+    if (isEnabled()) {
+      networkTime.addAndGet(System.nanoTime() - since);
+    }
+  }
+
+  public void casRetry() {
+    if (isEnabled()) {
+      casRetries.incrementAndGet();
+    }
+  }
+
+  /**
+   * Marks the operation as completed.
+   *
+   * @return the operation duration (in nanoseconds).
+   */
+  public long finish() {
+    elapsed = System.nanoTime() - start;
+    return elapsed;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getStatement() {
+    return statement;
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public long getSerializationTime() {
+    return serializationTime.get();
+  }
+
+  public long getNetworkTime() {
+    return networkTime.get();
+  }
+
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(new Date(startedAt))
+        + " " + type
+        + " id=" + id
+        + " key=" + key
+        + (statement == null ? "" : " statement=" + statement)
+        + " server=" + server
+        + " bytes=" + bytes
+        + " elapsed=" + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us"
+        + " serialization=" + TimeUnit.NANOSECONDS.toMicros(serializationTime.get()) + "us"
+        + " network=" + TimeUnit.NANOSECONDS.toMicros(networkTime.get()) + "us"
+        + " casRetries=" + casRetries;
+  }
+
+}
@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sizes the connections pool from the peak of concurrent operations: more
+ * operations in flight than connections means callers wait at checkout, far
+ * fewer means idle sockets held on the servers.
+ */
+final class PoolAutoscaler {
+
+  private static final double GROW_ABOVE = 0.9;
+
+  private static final double SHRINK_BELOW = 0.3;
+
+  /**
+   * Per server bounds.
+   */
+  private final int minConn;
+
+  private final int maxConn;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicInteger peak = new AtomicInteger();
+
+  public PoolAutoscaler(int minConn, int maxConn) {
+    this.minConn = Math.max(1, minConn);
+    this.maxConn = Math.max(this.minConn, maxConn);
+  }
+
+  /**
+   * Records the start of an operation.
+   */
+  public void begin() {
+    int current = inFlight.incrementAndGet();
+    int max = peak.get();
+    while (current > max && !peak.compareAndSet(max, current)) {
+      max = peak.get();
+    }
+  }
+
+  /**
+   * Records the end of an operation.
+   */
+  public void end() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Computes the pool size for the next period from the peak observed since
+   * the previous call.
+   *
+   * @param current the current per server max connections.
+   * @param servers the number of servers.
+   * @return the per server max connections to use.
+   */
+  public int nextMaxConn(int current, int servers) {
+    int observed = peak.getAndSet(inFlight.get());
+    int perServer = (observed + servers - 1) / Math.max(1, servers);
+
+    if (perServer >= current * GROW_ABOVE) {
+      return Math.min(maxConn, current + Math.max(1, current / 2));
+    }
+    if (perServer < current * SHRINK_BELOW) {
+      return Math.max(minConn, current - Math.max(1, current / 4));
+    }
+    return current;
+  }
+
+}
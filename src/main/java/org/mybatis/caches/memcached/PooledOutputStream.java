@@ -0,0 +1,87 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable in-memory output stream whose buffers come from a
+ * {@link BufferPool}: unlike a {@code ByteArrayOutputStream} the buffers
+ * used while growing are recycled.
+ *
+ * Closing the stream doesn't recycle its buffer, {@link #recycle()} does.
+ */
+final class PooledOutputStream extends OutputStream {
+
+  private final BufferPool pool;
+
+  private byte[] buffer;
+
+  private int count;
+
+  public PooledOutputStream(BufferPool pool) {
+    this.pool = pool;
+    this.buffer = pool.acquire(0);
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(count + 1);
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= buffer.length) {
+      return;
+    }
+
+    byte[] grown;
+    if (capacity <= BufferPool.MAX_POOLED_SIZE) {
+      grown = pool.acquire(capacity);
+    } else {
+      grown = new byte[Math.max(capacity, buffer.length * 2)];
+    }
+    System.arraycopy(buffer, 0, grown, 0, count);
+    pool.release(buffer);
+    buffer = grown;
+  }
+
+  /**
+   * @return a copy of the written bytes.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, count);
+  }
+
+  /**
+   * Gives the buffer back to the pool, the stream can't be used afterwards.
+   */
+  public void recycle() {
+    if (buffer != null) {
+      pool.release(buffer);
+      buffer = null;
+    }
+  }
+
+}
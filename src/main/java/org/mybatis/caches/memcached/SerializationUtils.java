@@ -0,0 +1,111 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Converts cached objects to and from their serialized form.
+ *
+ * Values are serialized once by the client, so the very same payload can be
+ * kept locally and sent to Memcached; the serialization buffers are pooled,
+ * only the final payload is allocated.
+ */
+final class SerializationUtils {
+
+  private SerializationUtils() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * Serializes the given object.
+   *
+   * @param value the object has to be serialized, may be null.
+   * @return the serialized form.
+   */
+  public static byte[] serialize(Object value) {
+    if (value != null && !Serializable.class.isAssignableFrom(value.getClass())) {
+      throw new CacheException("Object of type '" + value.getClass().getName()
+          + "' that's non-serializable is not supported by Memcached");
+    }
+
+    PooledOutputStream buffer = new PooledOutputStream(BufferPool.SHARED);
+    try {
+      ObjectOutputStream output = new ObjectOutputStream(buffer);
+      output.writeObject(value);
+      output.close();
+      return buffer.toByteArray();
+    } catch (IOException e) {
+      throw new CacheException("Impossible to serialize object of type '"
+          + (value == null ? null : value.getClass().getName()) + "', see nested exceptions", e);
+    } finally {
+      buffer.recycle();
+    }
+  }
+
+  /**
+   * Restores an object from its serialized form.
+   *
+   * @param data the serialized form.
+   * @return the restored object.
+   */
+  public static Object deserialize(byte[] data) {
+    try {
+      ObjectInputStream input = new ContextObjectInputStream(new ByteArrayInputStream(data));
+      try {
+        return input.readObject();
+      } finally {
+        input.close();
+      }
+    } catch (Exception e) {
+      throw new CacheException("Impossible to deserialize object, see nested exceptions", e);
+    }
+  }
+
+  /**
+   * Resolves classes through the thread context class loader first, the
+   * mapped result types are usually not visible to this library class loader.
+   */
+  private static final class ContextObjectInputStream extends ObjectInputStream {
+
+    ContextObjectInputStream(InputStream input) throws IOException {
+      super(input);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      if (classLoader != null) {
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // fall back to the default resolution
+        }
+      }
+      return super.resolveClass(desc);
+    }
+
+  }
+
+}
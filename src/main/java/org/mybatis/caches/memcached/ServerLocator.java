@@ -0,0 +1,55 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Tells which of the configured servers owns a key, hashing it the way the
+ * connection pool does with {@code SockIOPool.NEW_COMPAT_HASH} while all the
+ * servers are alive.
+ */
+final class ServerLocator {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String[] servers;
+
+  public ServerLocator(String[] servers) {
+    this.servers = servers;
+  }
+
+  public String[] getServers() {
+    return servers;
+  }
+
+  public int indexOf(String key) {
+    if (servers.length == 1) {
+      return 0;
+    }
+
+    CRC32 checksum = new CRC32();
+    checksum.update(key.getBytes(UTF_8));
+    long hash = (checksum.getValue() >> 16) & 0x7fff;
+    return (int) (hash % servers.length);
+  }
+
+  public String locate(String key) {
+    return servers[indexOf(key)];
+  }
+
+}
@@ -0,0 +1,292 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Collects the statistics of the Memcached servers, and hints at what to tune.
+ *
+ * Besides the general statistics (hits, misses, evictions) and the memory
+ * and the age of the oldest item per slab class, every collection reports
+ * the servers evicting since the previous one, and the slab classes the
+ * items written by this client fill poorly: an item takes a whole chunk of
+ * the smallest class large enough, so items just above a chunk size waste up
+ * to a fifth of their memory with the default growth factor.
+ */
+final class ServerStatsCollector {
+
+  /**
+   * How many of the latest written item sizes are kept.
+   */
+  private static final int SAMPLES = 4096;
+
+  /**
+   * Approximate item header, CAS and suffix, on top of the key and the value.
+   */
+  private static final int ITEM_OVERHEAD = 50;
+
+  /**
+   * Share of the chunks memory left unused above which a slab class is reported.
+   */
+  private static final double WASTE_THRESHOLD = 0.15;
+
+  /**
+   * Share of the sampled items a slab class must hold to be reported.
+   */
+  private static final double WASTE_MIN_SHARE = 0.01;
+
+  private final AtomicIntegerArray sizes = new AtomicIntegerArray(SAMPLES);
+
+  private final AtomicInteger sampled = new AtomicInteger();
+
+  /**
+   * The evictions per server at the previous collection, only used by the collecting thread.
+   */
+  private final Map<String, Long> previousEvictions = new HashMap<String, Long>();
+
+  private volatile List<String> report = Collections.emptyList();
+
+  private volatile long evictions;
+
+  /**
+   * Samples the size of a written item.
+   *
+   * @param key the item key.
+   * @param length the item value length.
+   */
+  public void recordItem(String key, int length) {
+    sizes.set(sampled.getAndIncrement() & (SAMPLES - 1), key.length() + length + ITEM_OVERHEAD);
+  }
+
+  /**
+   * Reads the servers statistics and replaces the report.
+   *
+   * @param transport the connected servers.
+   */
+  public void collect(MemcachedTransport transport) {
+    Map<String, Map<String, String>> general = transport.stats(null);
+    Map<String, Map<String, String>> slabs = transport.stats("slabs");
+    Map<String, Map<String, String>> items = transport.stats("items");
+
+    List<String> lines = new ArrayList<String>();
+    List<String> hints = new ArrayList<String>();
+    TreeSet<Long> chunkSizes = new TreeSet<Long>();
+    long totalEvictions = 0;
+
+    for (Map.Entry<String, Map<String, String>> server : general.entrySet()) {
+      Map<String, String> stats = server.getValue();
+      long hits = number(stats.get("get_hits"));
+      long misses = number(stats.get("get_misses"));
+      long serverEvictions = number(stats.get("evictions"));
+      Long previous = previousEvictions.put(server.getKey(), serverEvictions);
+      long recentEvictions = previous == null ? 0 : Math.max(0, serverEvictions - previous);
+      totalEvictions += serverEvictions;
+
+      lines.add(server.getKey()
+          + " items=" + number(stats.get("curr_items"))
+          + " bytes=" + number(stats.get("bytes"))
+          + " limit=" + number(stats.get("limit_maxbytes"))
+          + " hitRatio=" + (hits + misses == 0 ? 0d : Math.round(hits * 1000d / (hits + misses)) / 10d) + "%"
+          + " evictions=" + serverEvictions
+          + " recentEvictions=" + recentEvictions);
+
+      Map<Integer, Slab> serverSlabs = slabs(slabs.get(server.getKey()), items.get(server.getKey()));
+      Slab pressured = null;
+      for (Slab slab : serverSlabs.values()) {
+        lines.add(server.getKey() + " slab=" + slab.id
+            + " chunk=" + slab.chunkSize
+            + " items=" + slab.items
+            + " pages=" + slab.pages
+            + " age=" + slab.age + "s"
+            + " evicted=" + slab.evicted);
+        if (slab.chunkSize > 0) {
+          chunkSizes.add(slab.chunkSize);
+        }
+        if (slab.evicted > 0 && slab.items > 0 && (pressured == null || slab.age < pressured.age)) {
+          pressured = slab;
+        }
+      }
+
+      if (recentEvictions > 0) {
+        hints.add("HINT " + server.getKey() + " evicted " + recentEvictions + " items since the previous collection"
+            + (pressured == null ? "" : ", slab " + pressured.id + " keeps items for " + pressured.age + "s only")
+            + ": give it more memory, or shorten the expirations");
+      }
+    }
+
+    hints.addAll(wasteHints(chunkSizes));
+    lines.addAll(hints);
+    evictions = totalEvictions;
+    report = Collections.unmodifiableList(lines);
+  }
+
+  /**
+   * Maps the sampled item sizes to the slab classes.
+   */
+  private List<String> wasteHints(TreeSet<Long> chunkSizes) {
+    List<String> hints = new ArrayList<String>();
+    int count = Math.min(sampled.get(), SAMPLES);
+    if (count == 0 || chunkSizes.isEmpty()) {
+      return hints;
+    }
+
+    Map<Long, long[]> byChunk = new TreeMap<Long, long[]>();
+    for (int i = 0; i < count; i++) {
+      long size = sizes.get(i);
+      Long chunkSize = chunkSizes.ceiling(size);
+      if (size == 0 || chunkSize == null) {
+        continue;
+      }
+      long[] usage = byChunk.get(chunkSize);
+      if (usage == null) {
+        // items, total size, min size, max size
+        usage = new long[] { 0, 0, Long.MAX_VALUE, 0 };
+        byChunk.put(chunkSize, usage);
+      }
+      usage[0]++;
+      usage[1] += size;
+      usage[2] = Math.min(usage[2], size);
+      usage[3] = Math.max(usage[3], size);
+    }
+
+    for (Map.Entry<Long, long[]> entry : byChunk.entrySet()) {
+      long chunkSize = entry.getKey();
+      long[] usage = entry.getValue();
+      double waste = 1 - (double) usage[1] / (usage[0] * chunkSize);
+      if (waste < WASTE_THRESHOLD || usage[0] < count * WASTE_MIN_SHARE) {
+        continue;
+      }
+      Long smaller = chunkSizes.lower(chunkSize);
+      hints.add("HINT " + usage[0] + " of the latest " + count + " items written (" + usage[2] + "-" + usage[3]
+          + " bytes) land in the " + chunkSize + " bytes chunks, wasting " + Math.round(waste * 100) + "% of them"
+          + (smaller == null ? "" : "; " + (usage[3] - smaller) + " bytes less would fit the " + smaller
+              + " bytes chunks"));
+    }
+    return hints;
+  }
+
+  /**
+   * @return the latest report, one line per server, per slab class and per hint.
+   */
+  public List<String> dump() {
+    return report;
+  }
+
+  /**
+   * @return the evictions of all the servers, as of the latest collection.
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Reads the {@code N:name} slabs statistics and the {@code items:N:name} items ones.
+   */
+  private static Map<Integer, Slab> slabs(Map<String, String> slabStats, Map<String, String> itemStats) {
+    Map<Integer, Slab> slabs = new TreeMap<Integer, Slab>();
+    if (slabStats != null) {
+      for (Map.Entry<String, String> stat : slabStats.entrySet()) {
+        String[] name = stat.getKey().split(":");
+        if (name.length == 2 && isId(name[0])) {
+          Slab slab = slab(slabs, Integer.parseInt(name[0]));
+          if ("chunk_size".equals(name[1])) {
+            slab.chunkSize = number(stat.getValue());
+          } else if ("total_pages".equals(name[1])) {
+            slab.pages = number(stat.getValue());
+          }
+        }
+      }
+    }
+    if (itemStats != null) {
+      for (Map.Entry<String, String> stat : itemStats.entrySet()) {
+        String[] name = stat.getKey().split(":");
+        if (name.length == 3 && "items".equals(name[0]) && isId(name[1])) {
+          Slab slab = slab(slabs, Integer.parseInt(name[1]));
+          if ("number".equals(name[2])) {
+            slab.items = number(stat.getValue());
+          } else if ("age".equals(name[2])) {
+            slab.age = number(stat.getValue());
+          } else if ("evicted".equals(name[2])) {
+            slab.evicted = number(stat.getValue());
+          }
+        }
+      }
+    }
+    return slabs;
+  }
+
+  private static Slab slab(Map<Integer, Slab> slabs, int id) {
+    Slab slab = slabs.get(id);
+    if (slab == null) {
+      slab = new Slab(id);
+      slabs.put(id, slab);
+    }
+    return slab;
+  }
+
+  private static boolean isId(String value) {
+    if (value.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long number(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static final class Slab {
+
+    final int id;
+
+    long chunkSize;
+
+    long pages;
+
+    long items;
+
+    long age;
+
+    long evicted;
+
+    Slab(int id) {
+      this.id = id;
+    }
+
+  }
+
+}
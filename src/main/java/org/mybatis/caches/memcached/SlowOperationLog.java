@@ -0,0 +1,88 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size, lock free ring of the latest operations slower than a
+ * threshold, plus optionally 1 every N of the others.
+ */
+final class SlowOperationLog {
+
+  private final AtomicReferenceArray<OperationTrace> ring;
+
+  private final AtomicLong cursor = new AtomicLong();
+
+  private final AtomicLong operations = new AtomicLong();
+
+  /**
+   * (in nanoseconds)
+   */
+  private final long threshold;
+
+  /**
+   * 0 disables the sampling.
+   */
+  private final int sampleRate;
+
+  /**
+   * @param size how many operations are kept.
+   * @param threshold the latency (in milliseconds) above which an operation is always kept, 0 to disable.
+   * @param sampleRate keep 1 every {@code sampleRate} operations whatever their latency, 0 to disable.
+   */
+  public SlowOperationLog(int size, int threshold, int sampleRate) {
+    this.ring = new AtomicReferenceArray<OperationTrace>(size);
+    this.threshold = threshold > 0 ? TimeUnit.MILLISECONDS.toNanos(threshold) : Long.MAX_VALUE;
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Completes the given operation and keeps it if slow or sampled.
+   *
+   * @param trace the completed operation.
+   */
+  public void completed(OperationTrace trace) {
+    long elapsed = trace.finish();
+    boolean sampled = sampleRate > 0 && operations.incrementAndGet() % sampleRate == 0;
+    if (elapsed >= threshold || sampled) {
+      ring.set((int) (cursor.getAndIncrement() % ring.length()), trace);
+    }
+  }
+
+  /**
+   * Lists the kept operations, oldest first.
+   *
+   * @return the kept operations.
+   */
+  public List<OperationTrace> dump() {
+    long end = cursor.get();
+    long start = Math.max(0, end - ring.length());
+    List<OperationTrace> dump = new ArrayList<OperationTrace>((int) (end - start));
+    for (long i = start; i < end; i++) {
+      OperationTrace trace = ring.get((int) (i % ring.length()));
+      if (trace != null) {
+        dump.add(trace);
+      }
+    }
+    return dump;
+  }
+
+}
@@ -0,0 +1,563 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Performs the operations with the Memcached text protocol over the lock
+ * free {@link ConnectionPool}s, spreading the keys across the servers the
+ * same way the {@code SockIOPool} does.
+ *
+ * Values are stored as they are, with no flags: items written by the
+ * Memcached-Java-Client transport are not readable and vice versa.
+ *
+ * In the meta dialect the same operations are performed with the meta
+ * commands ({@code mg}, {@code ms}, {@code md}), which also tell the
+ * remaining TTL of an item and elect a single reader to refresh it, and check
+ * whether items exist without transferring their values.
+ *
+ * The pool settings are honoured as the {@code SockIOPool} does: with
+ * failover the keys of a server marked dead go to the next live one, with
+ * failback a dead server is tried again after a backoff, idle connections are
+ * checked with aliveCheck, and the connections idle for longer than maxIdle
+ * or busy for longer than maxBusyTime are closed by a maintenance thread.
+ */
+final class SocketTransport implements MemcachedTransport {
+
+  private static final Log LOG = LogFactory.getLog(MemcachedCache.class);
+
+  private static final int DEFAULT_PORT = 11211;
+
+  /**
+   * Max keys per get command.
+   */
+  private static final int MULTI_GET_BATCH_SIZE = 100;
+
+  /**
+   * Max connections opened at the same time on start.
+   */
+  private static final int MAX_CONNECTING = 16;
+
+  /**
+   * Maintenance period when the maintSleep is not set (in milliseconds).
+   */
+  private static final long DEFAULT_MAINT_SLEEP = 5000;
+
+  private final ServerLocator locator;
+
+  private final ConnectionPool[] pools;
+
+  /**
+   * Whether the meta commands are used, rather than the classic ones.
+   */
+  private final boolean meta;
+
+  /**
+   * Whether the keys of a dead server go to the next live one.
+   */
+  private final boolean failover;
+
+  /**
+   * Closes the idle and stuck connections, null if there's nothing to close.
+   */
+  private final ScheduledExecutorService maintenance;
+
+  /**
+   * @param config the connections settings.
+   * @param maxConn the per server max connections.
+   */
+  public SocketTransport(MemcachedConfiguration config, int maxConn) {
+    this(config, maxConn, false);
+  }
+
+  /**
+   * @param config the connections settings.
+   * @param maxConn the per server max connections.
+   * @param meta whether the meta commands are used, they require Memcached 1.6 or later.
+   */
+  public SocketTransport(MemcachedConfiguration config, int maxConn, boolean meta) {
+    this.meta = meta;
+    this.failover = config.isFailover();
+    locator = new ServerLocator(config.getServers());
+    pools = new ConnectionPool[config.getServers().length];
+    for (int i = 0; i < pools.length; i++) {
+      pools[i] = new ConnectionPool(toAddress(config.getServers()[i]), maxConn, config.getSocketTO(),
+          config.getSocketConnectTO(), config.isNagle(), config.isConnectionAffinity(), config.isAliveCheck(),
+          config.isFailback());
+    }
+    openConnections(Math.min(config.getInitConn(), maxConn));
+    maintenance = startMaintenance(TimeUnit.MILLISECONDS.toNanos(config.getMaxIdle()),
+        TimeUnit.MILLISECONDS.toNanos(config.getMaxBusyTime()),
+        config.getMaintSleep() > 0 ? config.getMaintSleep() : DEFAULT_MAINT_SLEEP);
+  }
+
+  private ScheduledExecutorService startMaintenance(final long maxIdle, final long maxBusy, long period) {
+    if (maxIdle <= 0 && maxBusy <= 0) {
+      return null;
+    }
+
+    ScheduledExecutorService maintenance = Executors
+        .newSingleThreadScheduledExecutor(new NamedThreadFactory("mybatis-memcached-maintenance"));
+    maintenance.scheduleWithFixedDelay(() -> {
+      for (ConnectionPool pool : pools) {
+        pool.maintain(maxIdle, maxBusy);
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+    return maintenance;
+  }
+
+  /**
+   * Opens the initial connections to all the servers in parallel, so a slow
+   * server delays the start by the connect timeout at most.
+   */
+  private void openConnections(int initConn) {
+    if (initConn <= 0) {
+      return;
+    }
+
+    ExecutorService connector = Executors.newFixedThreadPool(Math.min(MAX_CONNECTING, pools.length * initConn),
+        new NamedThreadFactory("mybatis-memcached-connect"));
+    try {
+      List<Future<MemcachedConnection>> connections = new ArrayList<Future<MemcachedConnection>>();
+      List<ConnectionPool> owners = new ArrayList<ConnectionPool>();
+      for (final ConnectionPool pool : pools) {
+        for (int i = 0; i < initConn; i++) {
+          connections.add(connector.submit(new Callable<MemcachedConnection>() {
+            @Override
+            public MemcachedConnection call() throws Exception {
+              return pool.borrow();
+            }
+          }));
+          owners.add(pool);
+        }
+      }
+
+      // all borrowed before any is released, or they would be reused
+      for (int i = 0; i < connections.size(); i++) {
+        try {
+          owners.get(i).release(connections.get(i).get());
+        } catch (ExecutionException e) {
+          LOG.warn("Impossible to open a connection: " + e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      connector.shutdownNow();
+    }
+  }
+
+  private static InetSocketAddress toAddress(String server) {
+    int separator = server.lastIndexOf(':');
+    if (separator == -1) {
+      return new InetSocketAddress(server, DEFAULT_PORT);
+    }
+    return new InetSocketAddress(server.substring(0, separator),
+        Integer.parseInt(server.substring(separator + 1)));
+  }
+
+  @Override
+  public Object get(final String key) {
+    if (meta) {
+      MetaReply reply = metaGet(key, " v");
+      return reply == null ? null : reply.data;
+    }
+    return execute(serverOf(key), connection -> {
+      connection.writeLine("get " + key);
+      connection.flush();
+      CasValue value = readValues(connection, false).get(key);
+      return value == null ? null : value.getValue();
+    }, null);
+  }
+
+  @Override
+  public Map<String, Object> getMulti(String[] keys) {
+    return getMulti(keys, false);
+  }
+
+  /**
+   * @param complete whether to fail if any server failed, rather than
+   *        returning the values of the other ones.
+   * @return the found values, null if any server failed and complete.
+   */
+  private Map<String, Object> getMulti(String[] keys, boolean complete) {
+    if (meta) {
+      return metaGetMulti(keys, " v", complete);
+    }
+
+    boolean failed = false;
+    final Map<String, Object> values = new HashMap<String, Object>();
+    for (Map.Entry<Integer, List<String>> server : byServer(keys).entrySet()) {
+      final List<String> serverKeys = server.getValue();
+      failed |= !execute(server.getKey(), connection -> {
+        for (int from = 0; from < serverKeys.size(); from += MULTI_GET_BATCH_SIZE) {
+          StringBuilder command = new StringBuilder("get");
+          for (String key : serverKeys.subList(from, Math.min(serverKeys.size(), from + MULTI_GET_BATCH_SIZE))) {
+            command.append(' ').append(key);
+          }
+          connection.writeLine(command.toString());
+          connection.flush();
+          for (Map.Entry<String, CasValue> value : readValues(connection, false).entrySet()) {
+            values.put(value.getKey(), value.getValue().getValue());
+          }
+        }
+        return true;
+      }, false);
+    }
+    return failed && complete ? null : values;
+  }
+
+  @Override
+  public CasValue gets(final String key) {
+    if (meta) {
+      MetaReply reply = metaGet(key, " v c");
+      return reply == null ? null : new CasValue(reply.data, Long.parseLong(reply.flags.get('c')));
+    }
+    return execute(serverOf(key), connection -> {
+      connection.writeLine("gets " + key);
+      connection.flush();
+      return readValues(connection, true).get(key);
+    }, null);
+  }
+
+  @Override
+  public MetaValue getWithMeta(String key, int recache) {
+    if (!meta) {
+      CasValue value = gets(key);
+      return value == null ? null : new MetaValue(value.getValue(), value.getCas(), -1, false);
+    }
+    MetaReply reply = metaGet(key, " v c t R" + recache);
+    if (reply == null) {
+      return null;
+    }
+    return new MetaValue(reply.data, Long.parseLong(reply.flags.get('c')), Integer.parseInt(reply.flags.get('t')),
+        reply.flags.containsKey('W'));
+  }
+
+  @Override
+  public Set<String> exists(String[] keys) {
+    Map<String, Object> found = meta ? metaGetMulti(keys, "", true) : getMulti(keys, true);
+    return found == null ? null : found.keySet();
+  }
+
+  @Override
+  public boolean set(String key, byte[] value, int expiration) {
+    return store(meta ? "ms " + key + " " + value.length + " T" + expiration
+        : "set " + key + " 0 " + expiration + " " + value.length, key, value);
+  }
+
+  @Override
+  public boolean add(String key, byte[] value, int expiration) {
+    return store(meta ? "ms " + key + " " + value.length + " T" + expiration + " ME"
+        : "add " + key + " 0 " + expiration + " " + value.length, key, value);
+  }
+
+  @Override
+  public boolean cas(String key, byte[] value, long cas) {
+    return store(meta ? "ms " + key + " " + value.length + " C" + cas
+        : "cas " + key + " 0 0 " + value.length + " " + cas, key, value);
+  }
+
+  @Override
+  public boolean delete(final String key) {
+    return execute(serverOf(key), connection -> {
+      connection.writeLine((meta ? "md " : "delete ") + key);
+      connection.flush();
+      String reply = connection.readLine();
+      if ("DELETED".equals(reply) || "HD".equals(reply)) {
+        return true;
+      }
+      if ("NOT_FOUND".equals(reply) || "NF".equals(reply)) {
+        return false;
+      }
+      throw new IOException("Unexpected reply to delete: " + reply);
+    }, false);
+  }
+
+  @Override
+  public boolean touch(final String key, final int expiration) {
+    return execute(serverOf(key), connection -> {
+      connection.writeLine(meta ? "mg " + key + " T" + expiration : "touch " + key + " " + expiration);
+      connection.flush();
+      String reply = connection.readLine();
+      if ("TOUCHED".equals(reply) || "HD".equals(reply)) {
+        return true;
+      }
+      if ("NOT_FOUND".equals(reply) || "EN".equals(reply)) {
+        return false;
+      }
+      throw new IOException("Unexpected reply to touch: " + reply);
+    }, false);
+  }
+
+  @Override
+  public Map<String, Map<String, String>> stats(String group) {
+    final String command = group == null ? "stats" : "stats " + group;
+    Map<String, Map<String, String>> stats = new LinkedHashMap<String, Map<String, String>>();
+    for (int i = 0; i < pools.length; i++) {
+      Map<String, String> serverStats = execute(i, connection -> {
+        connection.writeLine(command);
+        connection.flush();
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        String line;
+        while (!"END".equals(line = connection.readLine())) {
+          // STAT <name> <value>
+          int separator = line.indexOf(' ', 5);
+          if (!line.startsWith("STAT ") || separator < 0) {
+            throw new IOException("Unexpected reply to stats: " + line);
+          }
+          values.put(line.substring(5, separator), line.substring(separator + 1));
+        }
+        return values;
+      }, null);
+      if (serverStats != null) {
+        stats.put(locator.getServers()[i], serverStats);
+      }
+    }
+    return stats;
+  }
+
+  @Override
+  public boolean resize(int maxConn) {
+    for (ConnectionPool pool : pools) {
+      pool.resize(maxConn);
+    }
+    return true;
+  }
+
+  @Override
+  public void shutdown() {
+    if (maintenance != null) {
+      maintenance.shutdownNow();
+    }
+    for (ConnectionPool pool : pools) {
+      pool.close();
+    }
+  }
+
+  private boolean store(final String command, final String key, final byte[] value) {
+    return execute(serverOf(key), connection -> {
+      connection.writeLine(command);
+      connection.writeData(value);
+      connection.flush();
+      String reply = connection.readLine();
+      if ("STORED".equals(reply) || "HD".equals(reply)) {
+        return true;
+      }
+      if ("NOT_STORED".equals(reply) || "EXISTS".equals(reply) || "NOT_FOUND".equals(reply)
+          || "NS".equals(reply) || "EX".equals(reply) || "NF".equals(reply)) {
+        return false;
+      }
+      if (reply.startsWith("SERVER_ERROR")) {
+        // i.e. the item is too large, the connection is still usable
+        LOG.error("Impossible to store '" + key + "': " + reply);
+        return false;
+      }
+      throw new IOException("Unexpected reply to store: " + reply);
+    }, false);
+  }
+
+  /**
+   * Reads an item with the meta get command.
+   *
+   * @param flags the requested flags, each preceded by a space.
+   * @return the reply, null if the item is missing or on failure.
+   */
+  private MetaReply metaGet(final String key, final String flags) {
+    return execute(serverOf(key), connection -> {
+      connection.writeLine("mg " + key + flags);
+      connection.flush();
+      MetaReply reply = readMeta(connection);
+      if ("EN".equals(reply.code)) {
+        return null;
+      }
+      if (!"VA".equals(reply.code) && !"HD".equals(reply.code)) {
+        throw new IOException("Unexpected reply to mg: " + reply.code);
+      }
+      return reply;
+    }, null);
+  }
+
+  /**
+   * Reads several items with pipelined quiet meta gets, only the hits are
+   * replied to, up to the no-op closing each batch.
+   *
+   * @param flags the requested flags, each preceded by a space.
+   * @return the values of the found items, by key; null values if not requested.
+   */
+  private Map<String, Object> metaGetMulti(String[] keys, final String flags, boolean complete) {
+    boolean failed = false;
+    final Map<String, Object> values = new HashMap<String, Object>();
+    for (Map.Entry<Integer, List<String>> server : byServer(keys).entrySet()) {
+      final List<String> serverKeys = server.getValue();
+      failed |= !execute(server.getKey(), connection -> {
+        for (int from = 0; from < serverKeys.size(); from += MULTI_GET_BATCH_SIZE) {
+          for (String key : serverKeys.subList(from, Math.min(serverKeys.size(), from + MULTI_GET_BATCH_SIZE))) {
+            connection.writeLine("mg " + key + flags + " k q");
+          }
+          connection.writeLine("mn");
+          connection.flush();
+          MetaReply reply;
+          while (!"MN".equals((reply = readMeta(connection)).code)) {
+            if (!"VA".equals(reply.code) && !"HD".equals(reply.code)) {
+              throw new IOException("Unexpected reply to mg: " + reply.code);
+            }
+            values.put(reply.flags.get('k'), reply.data);
+          }
+        }
+        return true;
+      }, false);
+    }
+    return failed && complete ? null : values;
+  }
+
+  /**
+   * @return the index of the server owning the key, with failover the next
+   *         live one if it's dead.
+   */
+  private int serverOf(String key) {
+    int index = locator.indexOf(key);
+    if (!failover || !pools[index].isDead()) {
+      return index;
+    }
+    for (int i = 1; i < pools.length; i++) {
+      int next = (index + i) % pools.length;
+      if (!pools[next].isDead()) {
+        return next;
+      }
+    }
+    return index;
+  }
+
+  private Map<Integer, List<String>> byServer(String[] keys) {
+    Map<Integer, List<String>> byServer = new HashMap<Integer, List<String>>();
+    for (String key : keys) {
+      int index = serverOf(key);
+      List<String> serverKeys = byServer.get(index);
+      if (serverKeys == null) {
+        serverKeys = new ArrayList<String>();
+        byServer.put(index, serverKeys);
+      }
+      serverKeys.add(key);
+    }
+    return byServer;
+  }
+
+  /**
+   * Reads a meta command reply, along with its value if any.
+   */
+  private static MetaReply readMeta(MemcachedConnection connection) throws IOException {
+    String line = connection.readLine();
+    // <code> [<size>] <flags>*
+    String[] tokens = line.split(" ");
+    if (tokens[0].length() != 2) {
+      // ERROR, CLIENT_ERROR or SERVER_ERROR
+      return new MetaReply(line, new HashMap<Character, String>(), null);
+    }
+    int from = "VA".equals(tokens[0]) ? 2 : 1;
+    Map<Character, String> flags = new HashMap<Character, String>();
+    for (int i = from; i < tokens.length; i++) {
+      if (!tokens[i].isEmpty()) {
+        flags.put(tokens[i].charAt(0), tokens[i].substring(1));
+      }
+    }
+    byte[] data = from == 2 ? connection.readData(Integer.parseInt(tokens[1])) : null;
+    return new MetaReply(tokens[0], flags, data);
+  }
+
+  /**
+   * Reads the values replied to a get or gets command.
+   */
+  private static Map<String, CasValue> readValues(MemcachedConnection connection, boolean withCas) throws IOException {
+    Map<String, CasValue> values = new HashMap<String, CasValue>();
+    String line;
+    while (!"END".equals(line = connection.readLine())) {
+      if (!line.startsWith("VALUE ")) {
+        throw new IOException("Unexpected reply to get: " + line);
+      }
+      // VALUE <key> <flags> <bytes> [<cas unique>]
+      String[] tokens = line.split(" ");
+      byte[] data = connection.readData(Integer.parseInt(tokens[3]));
+      values.put(tokens[1], new CasValue(data, withCas ? Long.parseLong(tokens[4]) : 0));
+    }
+    return values;
+  }
+
+  /**
+   * Runs a command on a connection to the given server; on failure the
+   * connection is discarded, as its state is unknown.
+   */
+  private <T> T execute(int server, Command<T> command, T failure) {
+    ConnectionPool pool = pools[server];
+    MemcachedConnection connection = null;
+    try {
+      connection = pool.borrow();
+      T result = command.run(connection);
+      pool.release(connection);
+      return result;
+    } catch (Exception e) {
+      if (connection != null) {
+        pool.discard(connection);
+      }
+      LOG.error("Memcached operation failed on " + locator.getServers()[server] + ", see nested exceptions", e);
+      return failure;
+    }
+  }
+
+  /**
+   * A meta command reply: its code, the returned flags and the item value.
+   */
+  private static final class MetaReply {
+
+    final String code;
+
+    final Map<Character, String> flags;
+
+    final byte[] data;
+
+    MetaReply(String code, Map<Character, String> flags, byte[] data) {
+      this.code = code;
+      this.flags = flags;
+      this.data = data;
+    }
+
+  }
+
+  private interface Command<T> {
+
+    T run(MemcachedConnection connection) throws IOException;
+
+  }
+
+}
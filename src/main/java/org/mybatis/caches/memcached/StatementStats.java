@@ -0,0 +1,216 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the cost of the cached results per MyBatis statement: hits and
+ * misses, bytes read and written, sizes of the serialized results and time
+ * spent serializing them versus waiting for Memcached.
+ *
+ * Reads include the hits served by the local tiers, as they are deserialized
+ * all the same. Once the max number of statements is reached, the new ones
+ * are accounted together under {@link #OTHER}.
+ */
+final class StatementStats {
+
+  /**
+   * The statements beyond the max number.
+   */
+  static final String OTHER = "(other)";
+
+  /**
+   * Serialized sizes are counted in power of two buckets, the last one
+   * holding everything above 1 GB.
+   */
+  private static final int SIZE_BUCKETS = 32;
+
+  /**
+   * Max statements accounted separately.
+   */
+  private final int capacity;
+
+  private final ConcurrentMap<String, Counters> statements = new ConcurrentHashMap<String, Counters>();
+
+  public StatementStats(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Accounts a completed operation, only gets and puts of a known statement
+   * are.
+   *
+   * @param trace the operation trace.
+   * @param hit whether a get found the result.
+   */
+  public void completed(OperationTrace trace, boolean hit) {
+    if (trace.getStatement() == null) {
+      return;
+    }
+    boolean get = "get".equals(trace.getType());
+    if (!get && !"put".equals(trace.getType())) {
+      return;
+    }
+
+    Counters counters = counters(trace.getStatement());
+    long bytes = trace.getBytes();
+    if (get) {
+      if (hit) {
+        counters.hits.increment();
+        counters.bytesRead.add(bytes);
+        counters.size(bytes);
+      } else {
+        counters.misses.increment();
+      }
+    } else {
+      counters.writes.increment();
+      counters.bytesWritten.add(bytes);
+      counters.size(bytes);
+    }
+    counters.serializationTime.add(trace.getSerializationTime());
+    counters.networkTime.add(trace.getNetworkTime());
+  }
+
+  private Counters counters(String statement) {
+    Counters counters = statements.get(statement);
+    if (counters == null) {
+      Counters newCounters = new Counters();
+      counters = statements.size() < capacity ? statements.putIfAbsent(statement, newCounters)
+          : statements.putIfAbsent(OTHER, newCounters);
+      if (counters == null) {
+        counters = newCounters;
+      }
+    }
+    return counters;
+  }
+
+  /**
+   * Describes the accounted statements, the most expensive ones (in bytes
+   * moved) first.
+   *
+   * @return one line per statement.
+   */
+  public List<String> dump() {
+    List<Map.Entry<String, Counters>> entries = new ArrayList<Map.Entry<String, Counters>>(statements.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Counters>>() {
+      @Override
+      public int compare(Map.Entry<String, Counters> o1, Map.Entry<String, Counters> o2) {
+        return Long.compare(o2.getValue().bytes(), o1.getValue().bytes());
+      }
+    });
+
+    List<String> dump = new ArrayList<String>(entries.size());
+    for (Map.Entry<String, Counters> entry : entries) {
+      dump.add(entry.getKey() + " " + entry.getValue());
+    }
+    return dump;
+  }
+
+  /**
+   * Forgets everything accounted so far.
+   */
+  public void reset() {
+    statements.clear();
+  }
+
+  /**
+   * @param size a serialized size, in bytes.
+   * @return the index of the power of two bucket counting it.
+   */
+  static int bucket(long size) {
+    return Math.min(64 - Long.numberOfLeadingZeros(size), SIZE_BUCKETS - 1);
+  }
+
+  private static final class Counters {
+
+    final LongAdder hits = new LongAdder();
+
+    final LongAdder misses = new LongAdder();
+
+    final LongAdder writes = new LongAdder();
+
+    final LongAdder bytesRead = new LongAdder();
+
+    final LongAdder bytesWritten = new LongAdder();
+
+    final LongAdder serializationTime = new LongAdder();
+
+    final LongAdder networkTime = new LongAdder();
+
+    final AtomicLongArray sizes = new AtomicLongArray(SIZE_BUCKETS);
+
+    void size(long bytes) {
+      sizes.incrementAndGet(bucket(bytes));
+    }
+
+    long bytes() {
+      return bytesRead.sum() + bytesWritten.sum();
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile of the sizes, 0 if none was counted.
+     */
+    long sizePercentile(double percentile) {
+      long total = 0;
+      for (int i = 0; i < SIZE_BUCKETS; i++) {
+        total += sizes.get(i);
+      }
+      if (total == 0) {
+        return 0;
+      }
+
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long count = 0;
+      int i = 0;
+      for (; i < SIZE_BUCKETS - 1; i++) {
+        count += sizes.get(i);
+        if (count >= rank) {
+          break;
+        }
+      }
+      return i == SIZE_BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+    }
+
+    @Override
+    public String toString() {
+      long hitCount = hits.sum();
+      long reads = hitCount + misses.sum();
+      return "hits=" + hitCount
+          + " misses=" + misses.sum()
+          + " hitRatio=" + (reads == 0 ? 0d : Math.round(hitCount * 1000d / reads) / 10d) + "%"
+          + " writes=" + writes.sum()
+          + " bytesRead=" + bytesRead.sum()
+          + " bytesWritten=" + bytesWritten.sum()
+          + " sizeP50<=" + sizePercentile(50)
+          + " sizeP99<=" + sizePercentile(99)
+          + " sizeMax<=" + sizePercentile(100)
+          + " serialization=" + TimeUnit.NANOSECONDS.toMillis(serializationTime.sum()) + "ms"
+          + " network=" + TimeUnit.NANOSECONDS.toMillis(networkTime.sum()) + "ms";
+    }
+
+  }
+
+}
@@ -28,6 +28,9 @@ public final class StringUtils {
   private static final char[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
       'f' };
 
+  private static final char[] URL_SAFE_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+      .toCharArray();
+
   private StringUtils() {
     // Prevent Instantiation
   }
@@ -39,11 +42,51 @@ public final class StringUtils {
 
     byte[] bytes = digest("SHA1", data);
 
-    return toHexString(bytes);
+    return toHexString(bytes, bytes.length);
+  }
+
+  /**
+   * Hex representation of the first {@code length} bytes of the SHA-1 digest.
+   */
+  public static String sha1Hex(String data, int length) {
+    if (data == null) {
+      throw new IllegalArgumentException("data must not be null");
+    }
+
+    byte[] bytes = digest("SHA1", data);
+
+    return toHexString(bytes, Math.min(length, bytes.length));
+  }
+
+  /**
+   * Unpadded base64url representation of the first {@code length} bytes of
+   * the SHA-1 digest, 27 chars for the full digest against the 40 of the hex
+   * one.
+   */
+  public static String sha1Base64Url(String data, int length) {
+    if (data == null) {
+      throw new IllegalArgumentException("data must not be null");
+    }
+
+    byte[] bytes = digest("SHA1", data);
+
+    return toBase64UrlString(bytes, Math.min(length, bytes.length));
   }
 
-  private static String toHexString(byte[] bytes) {
-    int l = bytes.length;
+  /**
+   * Unpadded base64url representation of the SHA-256 digest, 43 chars.
+   */
+  public static String sha256Base64Url(byte[] data) {
+    if (data == null) {
+      throw new IllegalArgumentException("data must not be null");
+    }
+
+    byte[] bytes = digest("SHA-256", data);
+
+    return toBase64UrlString(bytes, bytes.length);
+  }
+
+  private static String toHexString(byte[] bytes, int l) {
 
     char[] out = new char[l << 1];
 
@@ -55,7 +98,37 @@ public final class StringUtils {
     return new String(out);
   }
 
+  private static String toBase64UrlString(byte[] bytes, int l) {
+    char[] out = new char[(l * 4 + 2) / 3];
+
+    int i = 0;
+    int j = 0;
+    for (; i + 2 < l; i += 3) {
+      int triple = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+      out[j++] = URL_SAFE_DIGITS[triple >>> 18];
+      out[j++] = URL_SAFE_DIGITS[(triple >>> 12) & 0x3F];
+      out[j++] = URL_SAFE_DIGITS[(triple >>> 6) & 0x3F];
+      out[j++] = URL_SAFE_DIGITS[triple & 0x3F];
+    }
+
+    int remaining = l - i;
+    if (remaining > 0) {
+      int triple = (bytes[i] & 0xFF) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+      out[j++] = URL_SAFE_DIGITS[triple >>> 18];
+      out[j++] = URL_SAFE_DIGITS[(triple >>> 12) & 0x3F];
+      if (remaining == 2) {
+        out[j++] = URL_SAFE_DIGITS[(triple >>> 6) & 0x3F];
+      }
+    }
+
+    return new String(out);
+  }
+
   private static byte[] digest(String algorithm, String data) {
+    return digest(algorithm, data.getBytes());
+  }
+
+  private static byte[] digest(String algorithm, byte[] data) {
     MessageDigest digest;
     try {
       digest = MessageDigest.getInstance(algorithm);
@@ -63,7 +136,7 @@ public final class StringUtils {
       throw new RuntimeException(e);
     }
 
-    return digest.digest(data.getBytes());
+    return digest.digest(data);
   }
 
 }
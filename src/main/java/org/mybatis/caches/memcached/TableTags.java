@@ -0,0 +1,382 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tags the cached results with the tables they were read from, so a write
+ * only invalidates the results depending on the tables it modified.
+ *
+ * Each tag has a version in Memcached: entries are stored along with the
+ * versions of their tags when the database was queried, and are valid as long
+ * as those versions didn't change; invalidating a tag is just replacing its
+ * version. Tables are taken from the configured statements first, then from
+ * the SQL; results whose tables are unknown are tagged with their namespace,
+ * which every write in the namespace invalidates.
+ */
+final class TableTags {
+
+  /**
+   * Tagged value format marker, Java serialization streams start with 0xACED.
+   */
+  private static final int MAGIC = 0x4d544147;
+
+  private static final int HEADER_SIZE = 8;
+
+  private static final String TABLE_TAG = "table:";
+
+  private static final String NAMESPACE_TAG = "namespace:";
+
+  private static final Pattern WORDS = Pattern.compile("[\\w$#\"`\\[\\].]+|[(),]");
+
+  /**
+   * The words ending a list of tables, as aliases are optional.
+   */
+  private static final Set<String> CLAUSES = new HashSet<String>(Arrays.asList("where", "join", "inner", "left",
+      "right", "full", "cross", "outer", "natural", "straight_join", "on", "using", "group", "order", "having", "limit",
+      "offset", "fetch", "for", "union", "except", "intersect", "minus", "window", "set", "values", "select", "lateral",
+      "with", "returning", "when", "connect", "start"));
+
+  /**
+   * The tables of the configured statements.
+   */
+  private final Map<String, Set<String>> statementTables = new HashMap<String, Set<String>>();
+
+  /**
+   * Max entries kept in {@link #observed}.
+   */
+  private final int capacity;
+
+  /**
+   * The tag versions read when each key missed, waiting for the key result,
+   * oldest first.
+   */
+  private final Map<String, long[]> observed;
+
+  /**
+   * @param statements the configured statements, as {@code statementId=table1 table2}.
+   * @param capacity max misses waiting for their result.
+   */
+  public TableTags(String[] statements, int capacity) {
+    this.capacity = capacity;
+    observed = Collections.synchronizedMap(new LinkedHashMap<String, long[]>() {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+        // results not written back, i.e. rolled back, never claim their versions
+        return size() > TableTags.this.capacity;
+      }
+
+    });
+    for (String statement : statements) {
+      int separator = statement.indexOf('=');
+      if (separator < 0) {
+        continue;
+      }
+      Set<String> tables = new TreeSet<String>();
+      for (String table : statement.substring(separator + 1).trim().split("\\s+")) {
+        if (!table.isEmpty()) {
+          tables.add(normalize(table));
+        }
+      }
+      statementTables.put(statement.substring(0, separator).trim(), tables);
+    }
+  }
+
+  /**
+   * Returns the tags of a cached result.
+   *
+   * @param key the MyBatis key, a {@code CacheKey} holding the statement id and its SQL.
+   * @param id the cache id.
+   * @return the sorted tags.
+   */
+  public String[] tagsOf(Object key, String id) {
+    String[] parts = CacheKeys.split(key);
+    Set<String> tables = null;
+    if (parts != null) {
+      tables = statementTables.get(parts[2]);
+      if (tables == null) {
+        tables = readTables(parts[5]);
+      }
+    }
+
+    if (tables == null || tables.isEmpty()) {
+      return new String[] { NAMESPACE_TAG + id };
+    }
+    String[] tags = new String[tables.size()];
+    int i = 0;
+    for (String table : tables) {
+      tags[i++] = TABLE_TAG + table;
+    }
+    return tags;
+  }
+
+  /**
+   * Returns the tags the given writes invalidate.
+   *
+   * @param writes the SQL of the written statements, along with their id.
+   * @param id the cache id being cleared.
+   * @return the tags, null if the tables of any write are unknown.
+   */
+  public Set<String> writtenTags(Map<String, String> writes, String id) {
+    if (writes == null || writes.isEmpty()) {
+      return null;
+    }
+
+    Set<String> tags = new TreeSet<String>();
+    tags.add(NAMESPACE_TAG + id);
+    for (Map.Entry<String, String> write : writes.entrySet()) {
+      Set<String> tables = statementTables.get(write.getValue());
+      if (tables == null) {
+        tables = writtenTables(write.getKey());
+      }
+      if (tables == null || tables.isEmpty()) {
+        return null;
+      }
+      for (String table : tables) {
+        tags.add(TABLE_TAG + table);
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * Remembers the tag versions read when a key missed, the database is
+   * queried after them so its result is valid with those versions.
+   *
+   * The oldest versions are kept until taken: with concurrent misses the
+   * first result stored may come from the oldest query, and tagging it with
+   * newer versions would make a result read before a write look current.
+   *
+   * @param keyString the key.
+   * @param versions the tag versions.
+   */
+  public void observed(String keyString, long[] versions) {
+    observed.putIfAbsent(keyString, versions);
+  }
+
+  /**
+   * Returns the tag versions read when the key missed.
+   *
+   * @param keyString the key.
+   * @return the tag versions, null if unknown.
+   */
+  public long[] takeObserved(String keyString) {
+    return observed.remove(keyString);
+  }
+
+  /**
+   * Returns the tables a query reads from.
+   *
+   * @param sql the query.
+   * @return the tables, lower case and without schema.
+   */
+  static Set<String> readTables(String sql) {
+    String[] words = words(sql);
+    Set<String> tables = new TreeSet<String>();
+    for (int i = 0; i < words.length; i++) {
+      if ("from".equals(words[i]) || "join".equals(words[i]) || "straight_join".equals(words[i])) {
+        i = tableList(words, i + 1, tables);
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Returns the tables a statement writes to.
+   *
+   * @param sql the statement.
+   * @return the tables, lower case and without schema, null if it is not a recognized write.
+   */
+  static Set<String> writtenTables(String sql) {
+    String[] words = words(sql);
+    if (words.length < 2) {
+      return null;
+    }
+
+    Set<String> tables = new TreeSet<String>();
+    String verb = words[0];
+    if ("update".equals(verb)) {
+      tableList(words, 1, tables);
+    } else if ("insert".equals(verb) || "replace".equals(verb) || "merge".equals(verb) || "upsert".equals(verb)) {
+      int into = Arrays.asList(words).indexOf("into");
+      if (into < 0) {
+        return null;
+      }
+      addTable(words[into + 1 < words.length ? into + 1 : into], tables);
+    } else if ("delete".equals(verb)) {
+      for (int i = 1; i < words.length; i++) {
+        // i.e. DELETE FROM t, or DELETE t1 FROM t1 JOIN t2 ON...
+        if ("from".equals(words[i]) || "join".equals(words[i])) {
+          i = tableList(words, i + 1, tables);
+        }
+      }
+      if (tables.isEmpty()) {
+        tableList(words, 1, tables);
+      }
+    } else if ("truncate".equals(verb)) {
+      tableList(words, "table".equals(words[1]) ? 2 : 1, tables);
+    } else {
+      return null;
+    }
+    return tables.isEmpty() ? null : tables;
+  }
+
+  /**
+   * Reads a comma separated list of tables, each with an optional alias.
+   *
+   * @return the index of the last word read.
+   */
+  private static int tableList(String[] words, int from, Set<String> tables) {
+    int i = from;
+    while (i < words.length) {
+      if ("(".equals(words[i]) || CLAUSES.contains(words[i])) {
+        // a sub-query, its own FROM is read later
+        return i - 1;
+      }
+      addTable(words[i++], tables);
+      // skip the alias
+      if (i < words.length && "as".equals(words[i])) {
+        i++;
+      }
+      if (i < words.length && !",".equals(words[i]) && !"(".equals(words[i]) && !")".equals(words[i])
+          && !CLAUSES.contains(words[i])) {
+        i++;
+      }
+      if (i >= words.length || !",".equals(words[i])) {
+        return i - 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static void addTable(String word, Set<String> tables) {
+    if (!"(".equals(word) && !")".equals(word) && !",".equals(word)) {
+      tables.add(normalize(word));
+    }
+  }
+
+  private static String[] words(String sql) {
+    Matcher matcher = WORDS.matcher(sql.toLowerCase(Locale.ENGLISH));
+    List<String> words = new ArrayList<String>();
+    while (matcher.find()) {
+      words.add(matcher.group());
+    }
+    return words.toArray(new String[words.size()]);
+  }
+
+  /**
+   * Drops the quotes and the schema, a table may be written qualified and
+   * read unqualified.
+   */
+  private static String normalize(String table) {
+    String name = table.toLowerCase(Locale.ENGLISH).replaceAll("[\"`\\[\\]]", "");
+    return name.substring(name.lastIndexOf('.') + 1);
+  }
+
+  /**
+   * @return a new tag version, never 0.
+   */
+  public static long newVersion() {
+    long version;
+    do {
+      version = ThreadLocalRandom.current().nextLong();
+    } while (version == 0);
+    return version;
+  }
+
+  public static byte[] encodeVersion(long version) {
+    return ByteBuffer.allocate(8).putLong(version).array();
+  }
+
+  /**
+   * @param stored a tag value.
+   * @return the tag version, 0 if not a version.
+   */
+  public static long decodeVersion(Object stored) {
+    if (!(stored instanceof byte[]) || ((byte[]) stored).length != 8) {
+      return 0;
+    }
+    return ByteBuffer.wrap((byte[]) stored).getLong();
+  }
+
+  /**
+   * Prepends the tag versions to a serialized value.
+   *
+   * @param versions the tag versions.
+   * @param data the serialized value.
+   * @return the tagged value.
+   */
+  public static byte[] wrap(long[] versions, byte[] data) {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * versions.length + data.length);
+    buffer.putInt(MAGIC).putInt(versions.length);
+    for (long version : versions) {
+      buffer.putLong(version);
+    }
+    return buffer.put(data).array();
+  }
+
+  /**
+   * @param stored a tagged value.
+   * @return its tag versions, null if not tagged.
+   */
+  public static long[] versionsOf(byte[] stored) {
+    if (stored.length < HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(stored);
+    if (buffer.getInt() != MAGIC) {
+      return null;
+    }
+    long[] versions = new long[buffer.getInt()];
+    for (int i = 0; i < versions.length; i++) {
+      versions[i] = buffer.getLong();
+    }
+    return versions;
+  }
+
+  /**
+   * @param stored a tagged value.
+   * @return the serialized value.
+   */
+  public static byte[] unwrap(byte[] stored) {
+    long[] versions = versionsOf(stored);
+    if (versions == null) {
+      return stored;
+    }
+    int offset = HEADER_SIZE + 8 * versions.length;
+    return Arrays.copyOfRange(stored, offset, stored.length);
+  }
+
+}
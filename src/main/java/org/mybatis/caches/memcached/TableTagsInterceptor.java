@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * Records the statements written by the current transaction, so that when
+ * tagging is enabled the Memcached caches cleared on commit only invalidate
+ * the tables those statements modified.
+ *
+ * Register it among the MyBatis plugins:
+ *
+ * <pre>
+ * &lt;plugins&gt;
+ *   &lt;plugin interceptor="org.mybatis.caches.memcached.TableTagsInterceptor" /&gt;
+ * &lt;/plugins&gt;
+ * </pre>
+ *
+ * Without it, or when the tables of a write are unknown, the whole namespace is cleared.
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "update", args = { MappedStatement.class, Object.class }),
+    @Signature(type = Executor.class, method = "commit", args = { boolean.class }),
+    @Signature(type = Executor.class, method = "rollback", args = { boolean.class }),
+    @Signature(type = Executor.class, method = "close", args = { boolean.class }) })
+public final class TableTagsInterceptor implements Interceptor {
+
+  /**
+   * Max distinct statements recorded per transaction, beyond that the writes
+   * are considered unknown.
+   */
+  private static final int MAX_WRITES = 1000;
+
+  /**
+   * The SQL of the statements written by the current transaction, along with their id.
+   */
+  private static final ThreadLocal<Map<String, String>> WRITES = new ThreadLocal<Map<String, String>>();
+
+  /**
+   * Returns the statements written by the current transaction.
+   *
+   * @return the SQL of the written statements along with their id, empty if none.
+   */
+  static Map<String, String> writes() {
+    Map<String, String> writes = WRITES.get();
+    return writes == null ? Collections.<String, String> emptyMap() : writes;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    if (!"update".equals(invocation.getMethod().getName())) {
+      // the caches are cleared while committing, then the transaction is over
+      try {
+        return invocation.proceed();
+      } finally {
+        WRITES.remove();
+      }
+    }
+
+    Map<String, String> writes = WRITES.get();
+    if (writes == null) {
+      writes = new LinkedHashMap<String, String>();
+      WRITES.set(writes);
+    }
+    if (writes.size() < MAX_WRITES) {
+      MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+      writes.put(statement.getBoundSql(invocation.getArgs()[1]).getSql(), statement.getId());
+    } else {
+      // too many distinct statements, i.e. generated ones: clear the namespaces
+      writes.put("", "");
+    }
+    return invocation.proceed();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setProperties(Properties properties) {
+    // nothing to configure, the tables are configured along with the cache
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+/**
+ * How the client talks to the Memcached servers.
+ */
+enum TransportType {
+
+  /**
+   * The Memcached-Java-Client binary protocol client and its connections pool.
+   */
+  WHALIN {
+    @Override
+    MemcachedTransport create(String name, MemcachedConfiguration config, int maxConn) {
+      return new WhalinTransport(name, config, maxConn);
+    }
+  },
+
+  /**
+   * The text protocol over lock free connections pools, optionally with per
+   * thread affinity.
+   */
+  SOCKET {
+    @Override
+    MemcachedTransport create(String name, MemcachedConfiguration config, int maxConn) {
+      return new SocketTransport(config, maxConn);
+    }
+  },
+
+  /**
+   * The meta commands of the text protocol, over the same connections pools
+   * as {@link #SOCKET}: requires Memcached 1.6 or later.
+   */
+  META {
+    @Override
+    MemcachedTransport create(String name, MemcachedConfiguration config, int maxConn) {
+      return new SocketTransport(config, maxConn, true);
+    }
+  };
+
+  /**
+   * Opens a transport.
+   *
+   * @param name the transport name, unique in the JVM.
+   * @param config the connections settings.
+   * @param maxConn the per server max connections.
+   * @return the transport.
+   */
+  abstract MemcachedTransport create(String name, MemcachedConfiguration config, int maxConn);
+
+}
@@ -0,0 +1,152 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import com.schooner.MemCached.BinaryClient;
+import com.schooner.MemCached.MemcachedItem;
+import com.whalin.MemCached.MemCachedClient;
+import com.whalin.MemCached.SockIOPool;
+
+/**
+ * Performs the operations with the Memcached-Java-Client binary protocol
+ * client, over a dedicated {@link SockIOPool}.
+ */
+final class WhalinTransport implements MemcachedTransport {
+
+  private final SockIOPool pool;
+
+  private final MemCachedClient client;
+
+  /**
+   * Starts a new named connections pool.
+   *
+   * @param poolName the pool name, must be unique.
+   * @param config the pool settings.
+   * @param maxConn the per server max connections.
+   */
+  public WhalinTransport(String poolName, MemcachedConfiguration config, int maxConn) {
+    pool = SockIOPool.getInstance(poolName);
+    pool.setServers(config.getServers());
+    pool.setInitConn(Math.min(config.getInitConn(), maxConn));
+    pool.setMinConn(Math.min(config.getMinConn(), maxConn));
+    pool.setMaxConn(maxConn);
+    pool.setMaxIdle(config.getMaxIdle());
+    pool.setMaxBusyTime(config.getMaxBusyTime());
+    pool.setMaintSleep(config.getMaintSleep());
+    pool.setSocketTO(config.getSocketTO());
+    pool.setSocketConnectTO(config.getSocketConnectTO());
+    pool.setNagle(config.isNagle());
+    pool.setFailback(config.isFailback());
+    pool.setFailover(config.isFailover());
+    pool.setHashingAlg(SockIOPool.NEW_COMPAT_HASH);
+    pool.setAliveCheck(config.isAliveCheck());
+    pool.initialize();
+
+    client = new BinaryClient(poolName);
+  }
+
+  @Override
+  public Object get(String key) {
+    return client.get(key);
+  }
+
+  @Override
+  public Map<String, Object> getMulti(String[] keys) {
+    return client.getMulti(keys);
+  }
+
+  @Override
+  public CasValue gets(String key) {
+    MemcachedItem item = client.gets(key);
+    if (item == null) {
+      return null;
+    }
+    return new CasValue(item.getValue(), item.getCasUnique());
+  }
+
+  @Override
+  public MetaValue getWithMeta(String key, int recache) {
+    // the binary protocol doesn't tell the remaining TTL, the item is never refreshed ahead
+    CasValue value = gets(key);
+    return value == null ? null : new MetaValue(value.getValue(), value.getCas(), -1, false);
+  }
+
+  @Override
+  public Set<String> exists(String[] keys) {
+    // the client doesn't tell a missing item from a failed server
+    return null;
+  }
+
+  @Override
+  public boolean set(String key, byte[] value, int expiration) {
+    return client.set(key, value, new Date(expiration * 1000L));
+  }
+
+  @Override
+  public boolean add(String key, byte[] value, int expiration) {
+    return client.add(key, value, new Date(expiration * 1000L));
+  }
+
+  @Override
+  public boolean cas(String key, byte[] value, long cas) {
+    return client.cas(key, value, cas);
+  }
+
+  /**
+   * The client has no touch command, items are always reported missing.
+   */
+  @Override
+  public boolean touch(String key, int expiration) {
+    return false;
+  }
+
+  @Override
+  public boolean delete(String key) {
+    return client.delete(key);
+  }
+
+  @Override
+  public Map<String, Map<String, String>> stats(String group) {
+    Map<String, Map<String, String>> stats;
+    if (group == null) {
+      stats = client.stats();
+    } else if ("slabs".equals(group)) {
+      stats = client.statsSlabs();
+    } else if ("items".equals(group)) {
+      stats = client.statsItems();
+    } else {
+      throw new IllegalArgumentException("Unknown statistics group '" + group + "'");
+    }
+    return stats == null ? Collections.<String, Map<String, String>> emptyMap() : stats;
+  }
+
+  @Override
+  public boolean resize(int maxConn) {
+    // the SockIOPool settings can't change once initialized
+    return false;
+  }
+
+  @Override
+  public void shutdown() {
+    pool.shutDown();
+  }
+
+}
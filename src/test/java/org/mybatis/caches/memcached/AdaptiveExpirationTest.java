@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public final class AdaptiveExpirationTest {
+
+  @Test
+  public void shouldLengthenTheExpirationOfStableNamespaces() {
+    AdaptiveExpiration expiration = new AdaptiveExpiration(60, 3600);
+    assertEquals(60, expiration.expiration("A", 0));
+    assertEquals(600, expiration.expiration("A", 600000));
+    assertEquals(3600, expiration.expiration("A", 86400000));
+  }
+
+  @Test
+  public void shouldShortenTheExpirationOfVolatileNamespaces() {
+    AdaptiveExpiration expiration = new AdaptiveExpiration(60, 3600);
+    expiration.expiration("A", 0);
+    for (long now = 5000; now <= 100000; now += 5000) {
+      expiration.cleared("A", now);
+    }
+    assertEquals(60, expiration.expiration("A", 100000));
+  }
+
+  @Test
+  public void shouldFollowTheMeanClearInterval() {
+    AdaptiveExpiration expiration = new AdaptiveExpiration(60, 3600);
+    expiration.expiration("A", 0);
+    for (long now = 1200000; now <= 12000000; now += 1200000) {
+      expiration.cleared("A", now);
+    }
+    assertEquals(1200, expiration.expiration("A", 12000000));
+  }
+
+}
@@ -0,0 +1,97 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class AdmissionPolicyTest {
+
+  @Test
+  public void shouldEstimateTheFrequency() {
+    FrequencySketch sketch = new FrequencySketch(1000);
+    for (int i = 0; i < 5; i++) {
+      sketch.increment("hot");
+    }
+    sketch.increment("cold");
+
+    assertEquals(5, sketch.frequency("hot"));
+    assertEquals(1, sketch.frequency("cold"));
+    assertEquals(0, sketch.frequency("unknown"));
+  }
+
+  @Test
+  public void shouldCountContendedIncrements() throws Exception {
+    final FrequencySketch sketch = new FrequencySketch(1000);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 3; j++) {
+            sketch.increment("hot");
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(12, sketch.frequency("hot"));
+  }
+
+  @Test
+  public void shouldAgeTheFrequencies() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    for (int i = 0; i < 8; i++) {
+      sketch.increment("hot");
+    }
+    for (int i = 0; i < 160; i++) {
+      sketch.increment("key" + i);
+    }
+
+    assertTrue(sketch.frequency("hot") < 8);
+  }
+
+  @Test
+  public void shouldAdmitFrequentResults() {
+    AdmissionPolicy policy = new AdmissionPolicy(1000, 2, 1000);
+    policy.recordAccess("key");
+    policy.recordMiss("key");
+    assertFalse(policy.admit("key"));
+
+    policy.recordAccess("key");
+    policy.recordMiss("key");
+    assertTrue(policy.admit("key"));
+    assertEquals(1, policy.getRejected());
+  }
+
+  @Test
+  public void shouldAdmitExpensiveResults() throws Exception {
+    AdmissionPolicy policy = new AdmissionPolicy(1000, 2, 5);
+    policy.recordAccess("key");
+    policy.recordMiss("key");
+    Thread.sleep(10);
+
+    assertTrue(policy.admit("key"));
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class BufferPoolTest {
+
+  @Test
+  public void shouldReuseTheReleasedBuffers() {
+    BufferPool pool = new BufferPool(1);
+    byte[] buffer = pool.acquire(5000);
+    assertEquals(16 * 1024, buffer.length);
+    pool.release(buffer);
+
+    assertSame(buffer, pool.acquire(10000));
+  }
+
+  @Test
+  public void shouldNotPoolLargeBuffers() {
+    BufferPool pool = new BufferPool(1);
+    byte[] buffer = pool.acquire(BufferPool.MAX_POOLED_SIZE + 1);
+    pool.release(buffer);
+
+    assertNotSame(buffer, pool.acquire(BufferPool.MAX_POOLED_SIZE + 1));
+  }
+
+  @Test
+  public void shouldGrowAcrossTheSizeClasses() {
+    byte[] data = new byte[3 * BufferPool.MAX_POOLED_SIZE];
+    new Random(1).nextBytes(data);
+
+    PooledOutputStream output = new PooledOutputStream(new BufferPool(1));
+    for (int i = 0; i < data.length; i += 1000) {
+      output.write(data, i, Math.min(1000, data.length - i));
+    }
+
+    assertArrayEquals(data, output.toByteArray());
+    output.recycle();
+  }
+
+}
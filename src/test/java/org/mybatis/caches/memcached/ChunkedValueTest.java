@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class ChunkedValueTest {
+
+  @Test
+  public void shouldRebuildTheChunkedValue() {
+    byte[] data = new byte[2500];
+    new Random(1).nextBytes(data);
+
+    ChunkedValue chunked = ChunkedValue.of("key", data, 1000);
+    String[] keys = chunked.chunkKeys();
+    assertEquals(3, keys.length);
+
+    Map<String, Object> stored = new HashMap<String, Object>();
+    for (int i = 0; i < keys.length; i++) {
+      stored.put(keys[i], chunked.chunk(data, i));
+    }
+
+    byte[] manifest = chunked.manifest();
+    assertTrue(ChunkedValue.isManifest(manifest));
+    assertArrayEquals(data, ChunkedValue.parse("key", manifest).assemble(stored));
+  }
+
+  @Test
+  public void shouldMissWhenAChunkIsMissing() {
+    byte[] data = new byte[2500];
+    ChunkedValue chunked = ChunkedValue.of("key", data, 1000);
+    String[] keys = chunked.chunkKeys();
+
+    Map<String, Object> stored = new HashMap<String, Object>();
+    stored.put(keys[0], chunked.chunk(data, 0));
+    stored.put(keys[2], chunked.chunk(data, 2));
+
+    assertNull(chunked.assemble(stored));
+  }
+
+  @Test
+  public void shouldNotMistakeSerializedValuesForManifests() {
+    assertFalse(ChunkedValue.isManifest(SerializationUtils.serialize("a value of 20 chars!")));
+  }
+
+  @Test
+  public void shouldNotMistakeValuesWithTheMagicForManifests() {
+    byte[] manifest = ChunkedValue.of("key", new byte[2500], 1000).manifest();
+    byte[] noChunkSize = manifest.clone();
+    ByteBuffer.wrap(noChunkSize).putInt(8, 0);
+    byte[] negativeLength = manifest.clone();
+    ByteBuffer.wrap(negativeLength).putInt(4, -1);
+
+    assertFalse(ChunkedValue.isManifest(noChunkSize));
+    assertFalse(ChunkedValue.isManifest(negativeLength));
+  }
+
+}
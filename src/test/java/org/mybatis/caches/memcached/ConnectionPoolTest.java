@@ -0,0 +1,180 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ConnectionPoolTest {
+
+  private ServerSocket server;
+
+  private final List<Socket> accepted = new ArrayList<Socket>();
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            accepted.add(server.accept());
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private ConnectionPool newPool(int maxConn, boolean affinity) {
+    return new ConnectionPool(new InetSocketAddress("localhost", server.getLocalPort()), maxConn, 200, 1000, false,
+        affinity);
+  }
+
+  @Test
+  public void shouldGiveBackTheLastUsedConnection() throws Exception {
+    ConnectionPool pool = newPool(10, true);
+    MemcachedConnection first = pool.borrow();
+    pool.release(first);
+
+    assertSame(first, pool.borrow());
+    pool.close();
+  }
+
+  @Test
+  public void shouldNeverShareAConnection() throws Exception {
+    ConnectionPool pool = newPool(10, true);
+    MemcachedConnection first = pool.borrow();
+
+    assertNotSame(first, pool.borrow());
+    pool.close();
+  }
+
+  @Test
+  public void shouldWaitForAConnectionWhenFull() throws Exception {
+    ConnectionPool pool = newPool(1, false);
+    MemcachedConnection first = pool.borrow();
+    try {
+      pool.borrow();
+      fail("The pool is full");
+    } catch (IOException e) {
+      // expected
+    }
+
+    pool.discard(first);
+    pool.release(pool.borrow());
+    pool.close();
+  }
+
+  @Test
+  public void shouldResizeInPlace() throws Exception {
+    ConnectionPool pool = newPool(1, false);
+    MemcachedConnection first = pool.borrow();
+    pool.resize(3);
+    MemcachedConnection second = pool.borrow();
+    MemcachedConnection third = pool.borrow();
+    pool.release(first);
+    pool.release(second);
+
+    pool.resize(1);
+    // the idle connections are closed, the busy one once released
+    pool.release(third);
+    pool.borrow();
+    try {
+      pool.borrow();
+      fail("The pool shrunk to one connection");
+    } catch (IOException e) {
+      // expected
+    }
+    pool.close();
+  }
+
+  @Test
+  public void shouldMarkARefusingServerDead() throws Exception {
+    ServerSocket down = new ServerSocket(0);
+    down.close();
+    ConnectionPool pool = new ConnectionPool(new InetSocketAddress("localhost", down.getLocalPort()), 1, 200, 1000,
+        false, false);
+    try {
+      pool.borrow();
+      fail("The server is down");
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertTrue(pool.isDead());
+    try {
+      pool.borrow();
+      fail("The server is marked dead");
+    } catch (IOException e) {
+      // expected, without connecting
+    }
+    pool.close();
+  }
+
+  @Test
+  public void shouldCloseTheIdleConnections() throws Exception {
+    ConnectionPool pool = newPool(1, false);
+    MemcachedConnection idle = pool.borrow();
+    pool.release(idle);
+    Thread.sleep(20);
+
+    pool.maintain(1, 0);
+    assertFalse(pool.isDead());
+    assertNotSame(idle, pool.borrow());
+    pool.close();
+  }
+
+  @Test
+  public void shouldNeverGiveBackAConnectionBusyForTooLong() throws Exception {
+    ConnectionPool pool = newPool(1, true);
+    MemcachedConnection stuck = pool.borrow();
+    Thread.sleep(20);
+
+    pool.maintain(0, 1);
+    assertTrue(stuck.isClosed());
+    // its owner finally gives it back
+    pool.release(stuck);
+    MemcachedConnection next = pool.borrow();
+    assertNotSame(stuck, next);
+    assertFalse(next.isClosed());
+    pool.close();
+  }
+
+}
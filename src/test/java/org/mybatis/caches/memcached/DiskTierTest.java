@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class DiskTierTest {
+
+  private static final long TTL = 60 * 1000L;
+
+  private File directory;
+
+  @Before
+  public void newDirectory() throws Exception {
+    directory = Files.createTempDirectory("disktier").toFile();
+  }
+
+  @After
+  public void deleteDirectory() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void shouldServeValuesAfterReopening() throws Exception {
+    DiskTier tier = new DiskTier(directory, 4096, 2, TTL);
+    tier.put("A", "k1", new byte[] { 1, 2, 3 });
+    tier.put("A", "k1", new byte[] { 4, 5 });
+    assertArrayEquals(new byte[] { 4, 5 }, tier.get("A", "k1"));
+
+    DiskTier reopened = new DiskTier(directory, 4096, 2, TTL);
+    assertArrayEquals(new byte[] { 4, 5 }, reopened.get("A", "k1"));
+  }
+
+  @Test
+  public void shouldInvalidateOnlyTheClearedCacheId() throws Exception {
+    DiskTier tier = new DiskTier(directory, 4096, 2, TTL);
+    tier.put("A", "k1", new byte[] { 1 });
+    tier.put("B", "k2", new byte[] { 2 });
+    tier.clear("A");
+
+    assertNull(tier.get("A", "k1"));
+    assertArrayEquals(new byte[] { 2 }, tier.get("B", "k2"));
+
+    DiskTier reopened = new DiskTier(directory, 4096, 2, TTL);
+    assertNull(reopened.get("A", "k1"));
+    assertArrayEquals(new byte[] { 2 }, reopened.get("B", "k2"));
+  }
+
+  @Test
+  public void shouldNotRestoreRemovedEntries() throws Exception {
+    DiskTier tier = new DiskTier(directory, 4096, 2, TTL);
+    tier.put("A", "k1", new byte[] { 1 });
+    tier.put("A", "k2", new byte[] { 2 });
+    tier.remove("A", "k1");
+    assertNull(tier.get("A", "k1"));
+
+    DiskTier reopened = new DiskTier(directory, 4096, 2, TTL);
+    assertNull(reopened.get("A", "k1"));
+    assertArrayEquals(new byte[] { 2 }, reopened.get("A", "k2"));
+
+    // written again after the removal
+    reopened.put("A", "k1", new byte[] { 3 });
+    assertArrayEquals(new byte[] { 3 }, new DiskTier(directory, 4096, 2, TTL).get("A", "k1"));
+  }
+
+  @Test
+  public void shouldRecycleTheOldestSegment() throws Exception {
+    DiskTier tier = new DiskTier(directory, 1024, 2, TTL);
+    for (int i = 0; i < 30; i++) {
+      tier.put("A", "k" + i, new byte[100]);
+    }
+
+    assertNull(tier.get("A", "k0"));
+    assertArrayEquals(new byte[100], tier.get("A", "k29"));
+
+    DiskTier reopened = new DiskTier(directory, 1024, 2, TTL);
+    assertNull(reopened.get("A", "k0"));
+    assertArrayEquals(new byte[100], reopened.get("A", "k29"));
+  }
+
+  @Test
+  public void shouldMissOnAGarbageLength() throws Exception {
+    DiskTier tier = new DiskTier(directory, 4096, 2, TTL);
+    byte[] value = { 1, 2, 3 };
+    tier.put("A", "k1", value);
+
+    // a torn record, as if overwritten while reading
+    byte[] record = { 0, 0, 0, 3, 1, 2, 3 };
+    for (File file : directory.listFiles()) {
+      byte[] content = Files.readAllBytes(file.toPath());
+      for (int i = 0; i + record.length <= content.length; i++) {
+        if (Arrays.equals(record, Arrays.copyOfRange(content, i, i + record.length))) {
+          RandomAccessFile raf = new RandomAccessFile(file, "rw");
+          raf.seek(i);
+          raf.writeInt(Integer.MAX_VALUE);
+          raf.close();
+        }
+      }
+    }
+
+    assertNull(tier.get("A", "k1"));
+  }
+
+}
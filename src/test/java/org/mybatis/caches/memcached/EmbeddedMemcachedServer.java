@@ -0,0 +1,992 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process stand-in of a Memcached server, speaking both the text and the
+ * binary protocols, along with the meta commands, for the tests that can't
+ * rely on a real server.
+ *
+ * Items expire and are evicted in LRU order above the memory limit like in
+ * Memcached, and are accounted in slab classes growing by a factor of 1.25 in
+ * the stats; the latency, dropped connections and CAS conflicts can be
+ * injected to reproduce slow or failing servers.
+ */
+public final class EmbeddedMemcachedServer implements Closeable {
+
+  public static final long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024;
+
+  public static final int ITEM_SIZE_LIMIT = 1024 * 1024;
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  /**
+   * Expirations above this are absolute unix times.
+   */
+  private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+  /**
+   * Per item memory overhead.
+   */
+  private static final int ITEM_OVERHEAD = 50;
+
+  /**
+   * The chunk sizes of the slab classes, as with the Memcached defaults.
+   */
+  private static final int[] SLAB_CHUNK_SIZES = slabChunkSizes();
+
+  private static final int BINARY_REQUEST = 0x80;
+
+  private static final int BINARY_RESPONSE = 0x81;
+
+  private static final short STATUS_OK = 0x0000;
+
+  private static final short STATUS_NOT_FOUND = 0x0001;
+
+  private static final short STATUS_EXISTS = 0x0002;
+
+  private static final short STATUS_TOO_LARGE = 0x0003;
+
+  private static final short STATUS_NOT_STORED = 0x0005;
+
+  private static final short STATUS_NON_NUMERIC = 0x0006;
+
+  private static final short STATUS_UNKNOWN_COMMAND = 0x0081;
+
+  private enum Mode {
+    SET, ADD, REPLACE, APPEND, PREPEND, CAS
+  }
+
+  private enum Result {
+    STORED, NOT_STORED, EXISTS, NOT_FOUND
+  }
+
+  private final long memoryLimit;
+
+  /**
+   * The items in LRU order, guarded by this.
+   */
+  private final LinkedHashMap<String, Item> items = new LinkedHashMap<String, Item>(16, 0.75f, true);
+
+  private long usedMemory;
+
+  private long casCounter;
+
+  private long getHits;
+
+  private long getMisses;
+
+  private long evictions;
+
+  /**
+   * The evictions per slab class.
+   */
+  private final long[] slabEvictions = new long[SLAB_CHUNK_SIZES.length];
+
+  private final long startedAt = System.currentTimeMillis();
+
+  private final Set<Socket> connections = ConcurrentHashMap.<Socket> newKeySet();
+
+  private ServerSocket serverSocket;
+
+  private volatile long latency;
+
+  private volatile double dropRate;
+
+  private volatile double casConflictRate;
+
+  private volatile long timeOffset;
+
+  public EmbeddedMemcachedServer() {
+    this(DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * @param memoryLimit the memory (in bytes) above which the least recently used items are evicted.
+   */
+  public EmbeddedMemcachedServer(long memoryLimit) {
+    this.memoryLimit = memoryLimit;
+  }
+
+  /**
+   * Starts listening on a random loopback port.
+   *
+   * @return this server.
+   * @throws IOException if the port can't be bound.
+   */
+  public EmbeddedMemcachedServer start() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "embedded-memcached-" + serverSocket.getLocalPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return this;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return the server address, as expected in the {@code servers} property.
+   */
+  public String getServer() {
+    return "127.0.0.1:" + getPort();
+  }
+
+  /**
+   * Delays every reply.
+   *
+   * @param latency the delay, in milliseconds.
+   */
+  public void setLatency(long latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Closes the connection, instead of replying, to the given share of the requests.
+   *
+   * @param dropRate between 0 and 1.
+   */
+  public void setDropRate(double dropRate) {
+    this.dropRate = dropRate;
+  }
+
+  /**
+   * Fails the given share of the CAS stores as if the item was concurrently modified.
+   *
+   * @param casConflictRate between 0 and 1.
+   */
+  public void setCasConflictRate(double casConflictRate) {
+    this.casConflictRate = casConflictRate;
+  }
+
+  /**
+   * Moves the server clock forward, to expire items without waiting.
+   *
+   * @param seconds the seconds to skip.
+   */
+  public void advanceTime(int seconds) {
+    timeOffset += seconds * 1000L;
+  }
+
+  /**
+   * Closes all the open connections, as a server restart would.
+   */
+  public void dropConnections() {
+    for (Socket connection : connections) {
+      closeQuietly(connection);
+    }
+  }
+
+  public synchronized int size() {
+    return items.size();
+  }
+
+  public synchronized void flush() {
+    items.clear();
+    usedMemory = 0;
+  }
+
+  @Override
+  public void close() {
+    closeQuietly(serverSocket);
+    dropConnections();
+  }
+
+  private void accept() {
+    try {
+      while (true) {
+        final Socket connection = serverSocket.accept();
+        connections.add(connection);
+        Thread handler = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(connection);
+          }
+        }, "embedded-memcached-connection");
+        handler.setDaemon(true);
+        handler.start();
+      }
+    } catch (IOException e) {
+      // closed
+    }
+  }
+
+  private void serve(Socket connection) {
+    try {
+      InputStream input = new BufferedInputStream(connection.getInputStream());
+      OutputStream output = new BufferedOutputStream(connection.getOutputStream());
+      while (true) {
+        input.mark(1);
+        int first = input.read();
+        if (first == -1) {
+          return;
+        }
+        input.reset();
+
+        if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+          return;
+        }
+        if (latency > 0) {
+          Thread.sleep(latency);
+        }
+
+        boolean open = first == BINARY_REQUEST ? serveBinary(new DataInputStream(input), output)
+            : serveText(input, output);
+        output.flush();
+        if (!open) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      // dropped
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      connections.remove(connection);
+      closeQuietly(connection);
+    }
+  }
+
+  // text protocol
+
+  private boolean serveText(InputStream input, OutputStream output) throws IOException {
+    String line = readLine(input);
+    String[] tokens = line.trim().split("\\s+");
+    String command = tokens[0];
+
+    if ("get".equals(command) || "gets".equals(command)) {
+      for (int i = 1; i < tokens.length; i++) {
+        Item item = lookup(tokens[i]);
+        if (item != null) {
+          writeLine(output, "VALUE " + tokens[i] + " " + item.flags + " " + item.data.length
+              + ("gets".equals(command) ? " " + item.cas : ""));
+          output.write(item.data);
+          writeLine(output, "");
+        }
+      }
+      writeLine(output, "END");
+    } else if ("set".equals(command) || "add".equals(command) || "replace".equals(command)
+        || "append".equals(command) || "prepend".equals(command) || "cas".equals(command)) {
+      Mode mode = Mode.valueOf(command.toUpperCase());
+      int length = Integer.parseInt(tokens[4]);
+      byte[] data = readFully(input, length);
+      readLine(input);
+      boolean noreply = "noreply".equals(tokens[tokens.length - 1]);
+      if (length > ITEM_SIZE_LIMIT) {
+        writeLine(output, "SERVER_ERROR object too large for cache");
+        return true;
+      }
+      long cas = mode == Mode.CAS ? Long.parseLong(tokens[5]) : 0;
+      Result result = store(mode, tokens[1], Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]), data, cas);
+      if (!noreply) {
+        writeLine(output, result.name());
+      }
+    } else if ("delete".equals(command)) {
+      boolean deleted = delete(tokens[1]);
+      if (!"noreply".equals(tokens[tokens.length - 1])) {
+        writeLine(output, deleted ? "DELETED" : "NOT_FOUND");
+      }
+    } else if ("incr".equals(command) || "decr".equals(command)) {
+      Long value;
+      try {
+        value = incr(tokens[1], Long.parseLong(tokens[2]), "incr".equals(command));
+      } catch (NumberFormatException e) {
+        writeLine(output, "CLIENT_ERROR cannot increment or decrement non-numeric value");
+        return true;
+      }
+      writeLine(output, value == null ? "NOT_FOUND" : Long.toUnsignedString(value));
+    } else if ("touch".equals(command)) {
+      writeLine(output, touch(tokens[1], Integer.parseInt(tokens[2])) ? "TOUCHED" : "NOT_FOUND");
+    } else if ("stats".equals(command)) {
+      for (String stat : stats(tokens.length > 1 ? tokens[1] : null)) {
+        writeLine(output, "STAT " + stat);
+      }
+      writeLine(output, "END");
+    } else if ("mg".equals(command)) {
+      metaGet(tokens, output);
+    } else if ("ms".equals(command)) {
+      metaSet(tokens, input, output);
+    } else if ("md".equals(command)) {
+      boolean deleted = delete(tokens[1]);
+      if (!deleted || !metaFlags(tokens, 2).containsKey('q')) {
+        writeLine(output, deleted ? "HD" : "NF");
+      }
+    } else if ("mn".equals(command)) {
+      writeLine(output, "MN");
+    } else if ("flush_all".equals(command)) {
+      flush();
+      writeLine(output, "OK");
+    } else if ("version".equals(command)) {
+      writeLine(output, "VERSION embedded");
+    } else if ("quit".equals(command)) {
+      return false;
+    } else {
+      writeLine(output, "ERROR");
+    }
+    return true;
+  }
+
+  /**
+   * mg &lt;key&gt; &lt;flags&gt;*, supporting the v, c, t, k, q, T and R flags.
+   */
+  private void metaGet(String[] tokens, OutputStream output) throws IOException {
+    String key = tokens[1];
+    Map<Character, String> flags = metaFlags(tokens, 2);
+    if (flags.containsKey('T')) {
+      touch(key, Integer.parseInt(flags.get('T')));
+    }
+    Item item = lookup(key);
+    if (item == null) {
+      if (!flags.containsKey('q')) {
+        writeLine(output, "EN");
+      }
+      return;
+    }
+
+    StringBuilder returned = new StringBuilder();
+    if (flags.containsKey('c')) {
+      returned.append(" c").append(item.cas);
+    }
+    if (flags.containsKey('t')) {
+      returned.append(" t").append(ttl(item));
+    }
+    if (flags.containsKey('k')) {
+      returned.append(" k").append(key);
+    }
+    if (flags.containsKey('R')) {
+      returned.append(recache(item, Integer.parseInt(flags.get('R'))));
+    }
+    if (flags.containsKey('v')) {
+      writeLine(output, "VA " + item.data.length + returned);
+      output.write(item.data);
+      writeLine(output, "");
+    } else {
+      writeLine(output, "HD" + returned);
+    }
+  }
+
+  /**
+   * ms &lt;key&gt; &lt;datalen&gt; &lt;flags&gt;*, supporting the F, T, C, q and M flags.
+   */
+  private void metaSet(String[] tokens, InputStream input, OutputStream output) throws IOException {
+    int length = Integer.parseInt(tokens[2]);
+    byte[] data = readFully(input, length);
+    readLine(input);
+    Map<Character, String> flags = metaFlags(tokens, 3);
+    if (length > ITEM_SIZE_LIMIT) {
+      writeLine(output, "SERVER_ERROR object too large for cache");
+      return;
+    }
+
+    Mode mode;
+    String modeFlag = flags.get('M');
+    if (flags.containsKey('C')) {
+      mode = Mode.CAS;
+    } else if (modeFlag == null || "S".equals(modeFlag)) {
+      mode = Mode.SET;
+    } else if ("E".equals(modeFlag)) {
+      mode = Mode.ADD;
+    } else if ("R".equals(modeFlag)) {
+      mode = Mode.REPLACE;
+    } else if ("A".equals(modeFlag)) {
+      mode = Mode.APPEND;
+    } else if ("P".equals(modeFlag)) {
+      mode = Mode.PREPEND;
+    } else {
+      writeLine(output, "CLIENT_ERROR invalid mode for ms");
+      return;
+    }
+    Result result = store(mode, tokens[1], flags.containsKey('F') ? Integer.parseInt(flags.get('F')) : 0,
+        flags.containsKey('T') ? Integer.parseInt(flags.get('T')) : 0, data,
+        mode == Mode.CAS ? Long.parseLong(flags.get('C')) : 0);
+    if (result != Result.STORED || !flags.containsKey('q')) {
+      writeLine(output, result == Result.STORED ? "HD" : result == Result.NOT_STORED ? "NS"
+          : result == Result.EXISTS ? "EX" : "NF");
+    }
+  }
+
+  private static Map<Character, String> metaFlags(String[] tokens, int from) {
+    Map<Character, String> flags = new LinkedHashMap<Character, String>();
+    for (int i = from; i < tokens.length; i++) {
+      flags.put(tokens[i].charAt(0), tokens[i].substring(1));
+    }
+    return flags;
+  }
+
+  private static String readLine(InputStream input) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int read;
+    while ((read = input.read()) != '\n') {
+      if (read == -1) {
+        throw new IOException("Connection closed");
+      }
+      if (read != '\r') {
+        line.append((char) read);
+      }
+    }
+    return line.toString();
+  }
+
+  private static byte[] readFully(InputStream input, int length) throws IOException {
+    byte[] data = new byte[length];
+    new DataInputStream(input).readFully(data);
+    return data;
+  }
+
+  private static void writeLine(OutputStream output, String line) throws IOException {
+    output.write(line.getBytes(US_ASCII));
+    output.write('\r');
+    output.write('\n');
+  }
+
+  // binary protocol
+
+  private boolean serveBinary(DataInputStream input, OutputStream output) throws IOException {
+    input.readUnsignedByte();
+    int opcode = input.readUnsignedByte();
+    int keyLength = input.readUnsignedShort();
+    int extrasLength = input.readUnsignedByte();
+    input.readUnsignedByte();
+    input.readUnsignedShort();
+    int bodyLength = input.readInt();
+    int opaque = input.readInt();
+    long cas = input.readLong();
+
+    DataInputStream extras = new DataInputStream(new ByteArrayInputStream(readFully(input, extrasLength)));
+    String key = new String(readFully(input, keyLength), US_ASCII);
+    byte[] value = readFully(input, bodyLength - keyLength - extrasLength);
+
+    BinaryReply reply = new BinaryReply(output, opcode, opaque);
+    switch (opcode) {
+    case 0x00: // get
+    case 0x09: // getq
+    case 0x0c: // getk
+    case 0x0d: // getkq
+    case 0x1d: // gat
+    case 0x1e: { // gatq
+      if (opcode == 0x1d || opcode == 0x1e) {
+        touch(key, extras.readInt());
+      }
+      Item item = lookup(key);
+      boolean withKey = opcode == 0x0c || opcode == 0x0d;
+      if (item == null) {
+        if (opcode == 0x00 || opcode == 0x0c || opcode == 0x1d) {
+          reply.send(STATUS_NOT_FOUND, 0, null, withKey ? key : null, "Not found".getBytes(US_ASCII));
+        }
+      } else {
+        reply.send(STATUS_OK, item.cas, intBytes(item.flags), withKey ? key : null, item.data);
+      }
+      break;
+    }
+    case 0x01: // set
+    case 0x02: // add
+    case 0x03: // replace
+    case 0x11: // setq
+    case 0x12: // addq
+    case 0x13: { // replaceq
+      int flags = extras.readInt();
+      int expiration = extras.readInt();
+      int base = opcode > 0x10 ? opcode - 0x10 : opcode;
+      if (value.length > ITEM_SIZE_LIMIT) {
+        reply.send(STATUS_TOO_LARGE, 0, null, null, null);
+        break;
+      }
+      Mode mode = cas != 0 ? Mode.CAS : base == 0x01 ? Mode.SET : base == 0x02 ? Mode.ADD : Mode.REPLACE;
+      reply.stored(mode, store(mode, key, flags, expiration, value, cas), opcode > 0x10, get(key));
+      break;
+    }
+    case 0x0e: // append
+    case 0x0f: // prepend
+    case 0x19: // appendq
+    case 0x1a: { // prependq
+      Mode mode = opcode == 0x0e || opcode == 0x19 ? Mode.APPEND : Mode.PREPEND;
+      reply.stored(mode, store(mode, key, 0, 0, value, 0), opcode > 0x10, get(key));
+      break;
+    }
+    case 0x04: // delete
+    case 0x14: // deleteq
+      if (delete(key)) {
+        if (opcode == 0x04) {
+          reply.send(STATUS_OK, 0, null, null, null);
+        }
+      } else {
+        reply.send(STATUS_NOT_FOUND, 0, null, null, null);
+      }
+      break;
+    case 0x05: // increment
+    case 0x06: // decrement
+    case 0x15: // incrementq
+    case 0x16: { // decrementq
+      long delta = extras.readLong();
+      long initial = extras.readLong();
+      int expiration = extras.readInt();
+      Long result;
+      try {
+        result = incr(key, delta, opcode == 0x05 || opcode == 0x15);
+      } catch (NumberFormatException e) {
+        reply.send(STATUS_NON_NUMERIC, 0, null, null, null);
+        break;
+      }
+      if (result == null) {
+        if (expiration == -1) {
+          reply.send(STATUS_NOT_FOUND, 0, null, null, null);
+          break;
+        }
+        store(Mode.ADD, key, 0, expiration, Long.toUnsignedString(initial).getBytes(US_ASCII), 0);
+        result = initial;
+      }
+      if (opcode < 0x10) {
+        reply.send(STATUS_OK, get(key).cas, null, null, longBytes(result));
+      }
+      break;
+    }
+    case 0x1c: // touch
+      reply.send(touch(key, extras.readInt()) ? STATUS_OK : STATUS_NOT_FOUND, 0, null, null, null);
+      break;
+    case 0x08: // flush
+    case 0x18: // flushq
+      flush();
+      if (opcode == 0x08) {
+        reply.send(STATUS_OK, 0, null, null, null);
+      }
+      break;
+    case 0x0a: // noop
+      reply.send(STATUS_OK, 0, null, null, null);
+      break;
+    case 0x0b: // version
+      reply.send(STATUS_OK, 0, null, null, "embedded".getBytes(US_ASCII));
+      break;
+    case 0x07: // quit
+      reply.send(STATUS_OK, 0, null, null, null);
+      return false;
+    case 0x17: // quitq
+      return false;
+    default:
+      reply.send(STATUS_UNKNOWN_COMMAND, 0, null, null, null);
+    }
+    return true;
+  }
+
+  private static byte[] intBytes(int value) {
+    return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+  }
+
+  private static byte[] longBytes(long value) {
+    byte[] bytes = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (value >>> (56 - 8 * i));
+    }
+    return bytes;
+  }
+
+  private static final class BinaryReply {
+
+    private final OutputStream output;
+
+    private final int opcode;
+
+    private final int opaque;
+
+    BinaryReply(OutputStream output, int opcode, int opaque) {
+      this.output = output;
+      this.opcode = opcode;
+      this.opaque = opaque;
+    }
+
+    void stored(Mode mode, Result result, boolean quiet, Item item) throws IOException {
+      switch (result) {
+      case STORED:
+        if (!quiet) {
+          send(STATUS_OK, item == null ? 0 : item.cas, null, null, null);
+        }
+        break;
+      case EXISTS:
+        send(STATUS_EXISTS, 0, null, null, null);
+        break;
+      case NOT_FOUND:
+        send(STATUS_NOT_FOUND, 0, null, null, null);
+        break;
+      default:
+        // as memcached does, a failed add means the key exists, a failed replace that it is missing
+        send(mode == Mode.ADD ? STATUS_EXISTS : mode == Mode.REPLACE ? STATUS_NOT_FOUND : STATUS_NOT_STORED, 0,
+            null, null, null);
+      }
+    }
+
+    void send(short status, long cas, byte[] extras, String key, byte[] value) throws IOException {
+      byte[] keyBytes = key == null ? new byte[0] : key.getBytes(US_ASCII);
+      int extrasLength = extras == null ? 0 : extras.length;
+      int valueLength = value == null ? 0 : value.length;
+
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(24 + extrasLength + keyBytes.length + valueLength);
+      DataOutputStream packet = new DataOutputStream(buffer);
+      packet.writeByte(BINARY_RESPONSE);
+      packet.writeByte(opcode);
+      packet.writeShort(keyBytes.length);
+      packet.writeByte(extrasLength);
+      packet.writeByte(0);
+      packet.writeShort(status);
+      packet.writeInt(extrasLength + keyBytes.length + valueLength);
+      packet.writeInt(opaque);
+      packet.writeLong(cas);
+      if (extras != null) {
+        packet.write(extras);
+      }
+      packet.write(keyBytes);
+      if (value != null) {
+        packet.write(value);
+      }
+      buffer.writeTo(output);
+    }
+
+  }
+
+  // storage
+
+  private long now() {
+    return System.currentTimeMillis() + timeOffset;
+  }
+
+  private long expiresAt(int expiration) {
+    if (expiration == 0) {
+      return 0;
+    }
+    if (expiration < 0) {
+      return now() - 1;
+    }
+    if (expiration <= MAX_RELATIVE_EXPIRATION) {
+      return now() + expiration * 1000L;
+    }
+    return expiration * 1000L;
+  }
+
+  private synchronized Item get(String key) {
+    Item item = items.get(key);
+    if (item != null && item.expiresAt != 0 && item.expiresAt <= now()) {
+      remove(key);
+      return null;
+    }
+    return item;
+  }
+
+  /**
+   * Reads an item on behalf of a client.
+   */
+  private synchronized Item lookup(String key) {
+    Item item = get(key);
+    if (item == null) {
+      getMisses++;
+    } else {
+      getHits++;
+      item.accessedAt = now();
+    }
+    return item;
+  }
+
+  private synchronized Result store(Mode mode, String key, int flags, int expiration, byte[] data, long cas) {
+    Item existing = get(key);
+    long expiresAt = expiresAt(expiration);
+    switch (mode) {
+    case ADD:
+      if (existing != null) {
+        return Result.NOT_STORED;
+      }
+      break;
+    case REPLACE:
+      if (existing == null) {
+        return Result.NOT_STORED;
+      }
+      break;
+    case APPEND:
+    case PREPEND:
+      if (existing == null) {
+        return Result.NOT_STORED;
+      }
+      byte[] joined = new byte[existing.data.length + data.length];
+      byte[] head = mode == Mode.APPEND ? existing.data : data;
+      byte[] tail = mode == Mode.APPEND ? data : existing.data;
+      System.arraycopy(head, 0, joined, 0, head.length);
+      System.arraycopy(tail, 0, joined, head.length, tail.length);
+      data = joined;
+      flags = existing.flags;
+      expiresAt = existing.expiresAt;
+      break;
+    case CAS:
+      if (existing == null) {
+        return Result.NOT_FOUND;
+      }
+      if (existing.cas != cas
+          || (casConflictRate > 0 && ThreadLocalRandom.current().nextDouble() < casConflictRate)) {
+        return Result.EXISTS;
+      }
+      break;
+    default:
+      break;
+    }
+
+    if (existing != null) {
+      remove(key);
+    }
+    Item item = new Item(data, flags, expiresAt, ++casCounter);
+    item.accessedAt = now();
+    items.put(key, item);
+    usedMemory += sizeOf(key, item);
+
+    Iterator<Map.Entry<String, Item>> eldest = items.entrySet().iterator();
+    while (usedMemory > memoryLimit && eldest.hasNext()) {
+      Map.Entry<String, Item> evicted = eldest.next();
+      usedMemory -= sizeOf(evicted.getKey(), evicted.getValue());
+      slabEvictions[slabOf(sizeOf(evicted.getKey(), evicted.getValue())) - 1]++;
+      evictions++;
+      eldest.remove();
+    }
+    return Result.STORED;
+  }
+
+  /**
+   * @return the remaining TTL of the item in seconds, -1 if never expiring.
+   */
+  private long ttl(Item item) {
+    return item.expiresAt == 0 ? -1 : Math.max(0, (item.expiresAt - now()) / 1000);
+  }
+
+  /**
+   * Elects the first reader of an item about to expire to refresh it.
+   *
+   * @return {@code " W"} to the elected reader, {@code " Z"} to the others
+   *         until the item is replaced, nothing if not about to expire.
+   */
+  private synchronized String recache(Item item, int threshold) {
+    long ttl = ttl(item);
+    if (ttl == -1 || ttl >= threshold) {
+      return "";
+    }
+    if (item.winSent) {
+      return " Z";
+    }
+    item.winSent = true;
+    return " W";
+  }
+
+  private synchronized boolean delete(String key) {
+    return get(key) != null && remove(key);
+  }
+
+  private synchronized Long incr(String key, long delta, boolean increment) {
+    Item item = get(key);
+    if (item == null) {
+      return null;
+    }
+    long value = Long.parseUnsignedLong(new String(item.data, US_ASCII).trim());
+    if (increment) {
+      value += delta;
+    } else {
+      value = Long.compareUnsigned(value, delta) < 0 ? 0 : value - delta;
+    }
+    byte[] data = Long.toUnsignedString(value).getBytes(US_ASCII);
+    remove(key);
+    Item updated = new Item(data, item.flags, item.expiresAt, ++casCounter);
+    updated.accessedAt = item.accessedAt;
+    items.put(key, updated);
+    usedMemory += sizeOf(key, updated);
+    return value;
+  }
+
+  private synchronized boolean touch(String key, int expiration) {
+    Item item = get(key);
+    if (item == null) {
+      return false;
+    }
+    item.expiresAt = expiresAt(expiration);
+    return true;
+  }
+
+  private boolean remove(String key) {
+    Item removed = items.remove(key);
+    if (removed != null) {
+      usedMemory -= sizeOf(key, removed);
+    }
+    return removed != null;
+  }
+
+  /**
+   * Lists the statistics of the given group, as {@code name value}.
+   *
+   * @param group {@code slabs}, {@code items}, or null for the general ones.
+   */
+  private synchronized List<String> stats(String group) {
+    List<String> stats = new ArrayList<String>();
+    if (group == null) {
+      stats.add("uptime " + (now() - startedAt) / 1000);
+      stats.add("curr_items " + items.size());
+      stats.add("bytes " + usedMemory);
+      stats.add("limit_maxbytes " + memoryLimit);
+      stats.add("get_hits " + getHits);
+      stats.add("get_misses " + getMisses);
+      stats.add("evictions " + evictions);
+      return stats;
+    }
+
+    Map<Integer, Slab> slabs = new TreeMap<Integer, Slab>();
+    for (Map.Entry<String, Item> entry : items.entrySet()) {
+      long size = sizeOf(entry.getKey(), entry.getValue());
+      int id = slabOf(size);
+      Slab slab = slabs.get(id);
+      if (slab == null) {
+        slab = new Slab(id);
+        slabs.put(id, slab);
+      }
+      slab.items++;
+      slab.requested += size;
+      slab.oldestAccess = Math.min(slab.oldestAccess, entry.getValue().accessedAt);
+    }
+    for (int i = 0; i < slabEvictions.length; i++) {
+      if (slabEvictions[i] > 0 && !slabs.containsKey(i + 1)) {
+        slabs.put(i + 1, new Slab(i + 1));
+      }
+    }
+
+    for (Slab slab : slabs.values()) {
+      int chunkSize = SLAB_CHUNK_SIZES[slab.id - 1];
+      if ("slabs".equals(group)) {
+        stats.add(slab.id + ":chunk_size " + chunkSize);
+        stats.add(slab.id + ":total_pages " + ((long) slab.items * chunkSize + ITEM_SIZE_LIMIT - 1) / ITEM_SIZE_LIMIT);
+        stats.add(slab.id + ":used_chunks " + slab.items);
+        stats.add(slab.id + ":mem_requested " + slab.requested);
+      } else if ("items".equals(group)) {
+        stats.add("items:" + slab.id + ":number " + slab.items);
+        stats.add("items:" + slab.id + ":age " + (slab.items == 0 ? 0 : (now() - slab.oldestAccess) / 1000));
+        stats.add("items:" + slab.id + ":evicted " + slabEvictions[slab.id - 1]);
+      }
+    }
+    if ("slabs".equals(group)) {
+      stats.add("active_slabs " + slabs.size());
+    }
+    return stats;
+  }
+
+  private static int[] slabChunkSizes() {
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (double size = 96; size < ITEM_SIZE_LIMIT / 2; size *= 1.25) {
+      sizes.add(((int) size + 7) & ~7);
+    }
+    sizes.add(ITEM_SIZE_LIMIT);
+    int[] chunkSizes = new int[sizes.size()];
+    for (int i = 0; i < chunkSizes.length; i++) {
+      chunkSizes[i] = sizes.get(i);
+    }
+    return chunkSizes;
+  }
+
+  /**
+   * @param size an item size.
+   * @return the id of the smallest slab class holding it.
+   */
+  private static int slabOf(long size) {
+    int id = 1;
+    while (id < SLAB_CHUNK_SIZES.length && SLAB_CHUNK_SIZES[id - 1] < size) {
+      id++;
+    }
+    return id;
+  }
+
+  private static long sizeOf(String key, Item item) {
+    return key.length() + item.data.length + ITEM_OVERHEAD;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      if (closeable != null) {
+        closeable.close();
+      }
+    } catch (IOException e) {
+      // nothing to do
+    }
+  }
+
+  private static final class Item {
+
+    final byte[] data;
+
+    final int flags;
+
+    long expiresAt;
+
+    final long cas;
+
+    long accessedAt;
+
+    /**
+     * Whether a reader has already been elected to refresh the item.
+     */
+    boolean winSent;
+
+    Item(byte[] data, int flags, long expiresAt, long cas) {
+      this.data = data;
+      this.flags = flags;
+      this.expiresAt = expiresAt;
+      this.cas = cas;
+    }
+
+  }
+
+  private static final class Slab {
+
+    final int id;
+
+    int items;
+
+    long requested;
+
+    long oldestAccess = Long.MAX_VALUE;
+
+    Slab(int id) {
+      this.id = id;
+    }
+
+  }
+
+}
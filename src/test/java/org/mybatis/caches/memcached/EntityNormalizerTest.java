@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class EntityNormalizerTest {
+
+  private final EntityNormalizer normalizer = new EntityNormalizer(new String[] { "A" }, "id");
+
+  @Test
+  public void shouldReferenceTheEntitiesByClassAndId() {
+    List<Entity> list = Arrays.asList(new Entity(1L), new Entity(2L), new Entity(1L));
+
+    assertArrayEquals(new String[] { Entity.class.getName() + ":1", Entity.class.getName() + ":2",
+        Entity.class.getName() + ":1" }, normalizer.references(list, "A"));
+  }
+
+  @Test
+  public void shouldOnlyNormalizeTheConfiguredCaches() {
+    assertNull(normalizer.references(Arrays.asList(new Entity(1L)), "B"));
+  }
+
+  @Test
+  public void shouldNotNormalizeUnidentifiableElements() {
+    assertNull(normalizer.references(Arrays.asList(new Entity(1L), new Entity(null)), "A"));
+    assertNull(normalizer.references(Arrays.asList("a", "b"), "A"));
+    assertNull(normalizer.references(Arrays.asList(Collections.singletonMap("id", 1)), "A"));
+    assertNull(normalizer.references(Collections.emptyList(), "A"));
+    assertNull(normalizer.references(new Entity(1L), "A"));
+  }
+
+  public static final class Entity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long id;
+
+    Entity(Long id) {
+      this.id = id;
+    }
+
+    public Long getId() {
+      return id;
+    }
+
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public final class GroupIndexTest {
+
+  @Test
+  public void shouldDropTheExpiredMembers() {
+    GroupIndex index = new GroupIndex();
+    index.add("expired", 1000);
+    index.add("alive", 3000);
+    index.add("forever", 0);
+
+    assertEquals(1, index.prune(2000));
+    assertEquals(new HashSet<String>(Arrays.asList("alive", "forever")), index);
+  }
+
+  @Test
+  public void shouldTrimTheOldestMembers() {
+    GroupIndex index = new GroupIndex();
+    index.add("first", 0);
+    index.add("second", 0);
+    index.add("third", 0);
+    // refreshed, no longer the oldest
+    index.add("first", 0);
+
+    assertEquals(Arrays.asList("second"), index.trim(2));
+    assertEquals(Arrays.asList("third", "first"), new ArrayList<String>(index));
+    assertTrue(index.trim(2).isEmpty());
+    assertTrue(index.trim(0).isEmpty());
+  }
+
+  @Test
+  public void shouldSurviveSerialization() {
+    GroupIndex index = new GroupIndex();
+    index.add("expiring", 1000);
+    index.add("forever", 0);
+
+    GroupIndex restored = (GroupIndex) SerializationUtils.deserialize(SerializationUtils.serialize(index));
+    assertEquals(Arrays.asList("expiring", "forever"), new ArrayList<String>(restored));
+    assertEquals(1, restored.prune(1000));
+  }
+
+  @Test
+  public void shouldReadTheGroupsOfPreviousVersions() {
+    GroupIndex index = GroupIndex.of(new HashSet<String>(Arrays.asList("a", "b")));
+
+    assertEquals(new HashSet<String>(Arrays.asList("a", "b")), index);
+    assertEquals(0, index.prune(Long.MAX_VALUE));
+    assertEquals(0, GroupIndex.of(null).size());
+  }
+
+}
@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class HotKeyTrackerTest {
+
+  @Test
+  public void shouldKeepTheMostAccessedKeys() {
+    HotKeyTracker tracker = new HotKeyTracker(2, new File("unused"));
+    for (int i = 0; i < 3; i++) {
+      tracker.record("A", "warm");
+    }
+    for (int i = 0; i < 5; i++) {
+      tracker.record("A", "hot");
+    }
+    tracker.record("A", "cold");
+
+    assertEquals(Arrays.asList("hot", "warm"), tracker.hottest().get("A"));
+  }
+
+  @Test
+  public void shouldForgetKeysNoLongerAccessed() {
+    HotKeyTracker tracker = new HotKeyTracker(10, new File("unused"));
+    tracker.record("A", "once");
+
+    assertEquals(Arrays.asList("once"), tracker.hottest().get("A"));
+    assertTrue(tracker.hottest().isEmpty());
+  }
+
+  @Test
+  public void shouldRestoreTheWrittenSnapshot() throws Exception {
+    File file = File.createTempFile("hotkeys", ".bin");
+    file.deleteOnExit();
+
+    HotKeyTracker tracker = new HotKeyTracker(10, file);
+    tracker.record("A", "a1");
+    tracker.record("B", "b1");
+    tracker.record("B", "b2");
+    tracker.record("B", "b2");
+    tracker.snapshot();
+
+    Map<String, List<String>> restored = new HotKeyTracker(10, file).load();
+    assertEquals(Arrays.asList("a1"), restored.get("A"));
+    assertEquals(Arrays.asList("b2", "b1"), restored.get("B"));
+  }
+
+}
@@ -0,0 +1,407 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Drives a mixed read/write/clear workload against a cache and reports the
+ * throughput and the latency percentiles, to plan the capacity of a
+ * deployment rather than to measure a single operation.
+ *
+ * Keys are drawn with a Zipfian skew and values have random sizes. When a
+ * target rate is set, every thread issues its operations on a fixed schedule
+ * and the latency is measured from the time each operation should have
+ * started, so a stalled server delays the operations queued behind it and
+ * shows in the percentiles (no coordinated omission); without a rate, threads
+ * run back to back and only measure the service time.
+ *
+ * Run against a local memcached with
+ * {@code -Dorg.mybatis.caches.memcached.servers=localhost:11211}, otherwise an
+ * {@link EmbeddedMemcachedServer} is started; the workload is configured by the
+ * {@code loadtest.*} system properties, see {@link #main(String[])}.
+ */
+public final class LoadGenerator {
+
+  /**
+   * Latencies are recorded in microseconds, up to a minute.
+   */
+  private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private int threads = 8;
+
+  private long duration = 10000;
+
+  private long warmup = 2000;
+
+  private long rate;
+
+  private int keys = 1000;
+
+  private double skew = 0.99;
+
+  private int minValueSize = 100;
+
+  private int maxValueSize = 1000;
+
+  private double readRatio = 0.9;
+
+  private double clearRatio = 0.001;
+
+  /**
+   * @param threads the number of concurrent clients.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @param duration the measured duration, in milliseconds.
+   */
+  public void setDuration(long duration) {
+    this.duration = duration;
+  }
+
+  /**
+   * @param warmup the unmeasured duration before the measured one, in milliseconds.
+   */
+  public void setWarmup(long warmup) {
+    this.warmup = warmup;
+  }
+
+  /**
+   * @param rate the target operations per second across all threads, 0 to run back to back.
+   */
+  public void setRate(long rate) {
+    this.rate = rate;
+  }
+
+  /**
+   * @param keys the number of distinct keys.
+   */
+  public void setKeys(int keys) {
+    this.keys = keys;
+  }
+
+  /**
+   * @param skew the Zipfian skew of the keys, 0 for uniform.
+   */
+  public void setSkew(double skew) {
+    this.skew = skew;
+  }
+
+  /**
+   * @param minValueSize the min size of the written values, in bytes.
+   * @param maxValueSize the max size of the written values, in bytes.
+   */
+  public void setValueSize(int minValueSize, int maxValueSize) {
+    this.minValueSize = minValueSize;
+    this.maxValueSize = maxValueSize;
+  }
+
+  /**
+   * @param readRatio the share of reads, between 0 and 1.
+   * @param clearRatio the share of clears, between 0 and 1; the remaining operations are writes.
+   */
+  public void setMix(double readRatio, double clearRatio) {
+    if (readRatio < 0 || clearRatio < 0 || readRatio + clearRatio > 1) {
+      throw new IllegalArgumentException("Invalid mix: " + readRatio + " reads, " + clearRatio + " clears");
+    }
+    this.readRatio = readRatio;
+    this.clearRatio = clearRatio;
+  }
+
+  /**
+   * Writes every key once, so reads can hit from the start.
+   *
+   * @param cache the cache under test.
+   */
+  public void preload(Cache cache) {
+    Random random = new Random();
+    for (int key = 0; key < keys; key++) {
+      cache.putObject(key, newValue(random));
+    }
+  }
+
+  /**
+   * Runs the workload, blocking until the warmup and the measured duration elapsed.
+   *
+   * @param cache the cache under test.
+   * @return the measures.
+   * @throws InterruptedException if interrupted while waiting the workers.
+   */
+  public Report run(final Cache cache) throws InterruptedException {
+    final ZipfianGenerator keyGenerator = new ZipfianGenerator(keys, skew);
+    final long start = System.nanoTime();
+    final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmup);
+    final long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(duration);
+    final long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+
+    List<Worker> workers = new ArrayList<Worker>(threads);
+    for (int i = 0; i < threads; i++) {
+      // spread the schedules, not to issue the operations of all threads at once
+      Worker worker = new Worker(cache, keyGenerator, start + interval * i / threads, interval, measureFrom, end);
+      worker.setName("load-generator-" + i);
+      worker.setDaemon(true);
+      workers.add(worker);
+      worker.start();
+    }
+
+    Report report = new Report(TimeUnit.NANOSECONDS.toMillis(end - measureFrom), rate > 0);
+    for (Worker worker : workers) {
+      worker.join();
+      report.add(worker);
+    }
+    return report;
+  }
+
+  private byte[] newValue(Random random) {
+    byte[] value = new byte[minValueSize + random.nextInt(maxValueSize - minValueSize + 1)];
+    random.nextBytes(value);
+    return value;
+  }
+
+  private static Histogram newHistogram() {
+    return new Histogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+  }
+
+  private final class Worker extends Thread {
+
+    private final Cache cache;
+
+    private final ZipfianGenerator keyGenerator;
+
+    private final long start;
+
+    private final long interval;
+
+    private final long measureFrom;
+
+    private final long end;
+
+    private final Histogram reads = newHistogram();
+
+    private final Histogram writes = newHistogram();
+
+    private final Histogram clears = newHistogram();
+
+    private long hits;
+
+    Worker(Cache cache, ZipfianGenerator keyGenerator, long start, long interval, long measureFrom, long end) {
+      this.cache = cache;
+      this.keyGenerator = keyGenerator;
+      this.start = start;
+      this.interval = interval;
+      this.measureFrom = measureFrom;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      Random random = new Random();
+      long next = start;
+      while (true) {
+        long now = System.nanoTime();
+        if (interval > 0) {
+          // when late, the next operations are issued at once to catch up
+          while (now < next) {
+            LockSupport.parkNanos(next - now);
+            now = System.nanoTime();
+          }
+        } else {
+          next = now;
+        }
+        if (next >= end) {
+          return;
+        }
+
+        double operation = random.nextDouble();
+        Histogram histogram;
+        if (operation < readRatio) {
+          histogram = reads;
+          if (cache.getObject((int) keyGenerator.next(random)) != null && next >= measureFrom) {
+            hits++;
+          }
+        } else if (operation < readRatio + clearRatio) {
+          histogram = clears;
+          cache.clear();
+        } else {
+          histogram = writes;
+          cache.putObject((int) keyGenerator.next(random), newValue(random));
+        }
+
+        if (next >= measureFrom) {
+          long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - next);
+          histogram.recordValue(Math.min(latency, HIGHEST_LATENCY));
+        }
+        next += interval;
+      }
+    }
+
+  }
+
+  /**
+   * The measures of a run, latencies in microseconds.
+   */
+  public static final class Report {
+
+    private final long duration;
+
+    private final boolean corrected;
+
+    private final Histogram reads = newHistogram();
+
+    private final Histogram writes = newHistogram();
+
+    private final Histogram clears = newHistogram();
+
+    private final Histogram all = newHistogram();
+
+    private long hits;
+
+    Report(long duration, boolean corrected) {
+      this.duration = duration;
+      this.corrected = corrected;
+    }
+
+    void add(Worker worker) {
+      reads.add(worker.reads);
+      writes.add(worker.writes);
+      clears.add(worker.clears);
+      all.add(worker.reads);
+      all.add(worker.writes);
+      all.add(worker.clears);
+      hits += worker.hits;
+    }
+
+    public long getOperations() {
+      return all.getTotalCount();
+    }
+
+    /**
+     * @return the operations per second.
+     */
+    public double getThroughput() {
+      return getOperations() * 1000.0 / duration;
+    }
+
+    /**
+     * @return the share of reads finding a value.
+     */
+    public double getHitRatio() {
+      return reads.getTotalCount() == 0 ? 0 : (double) hits / reads.getTotalCount();
+    }
+
+    public Histogram getReads() {
+      return reads;
+    }
+
+    public Histogram getWrites() {
+      return writes;
+    }
+
+    public Histogram getClears() {
+      return clears;
+    }
+
+    public Histogram getAll() {
+      return all;
+    }
+
+    /**
+     * Prints a summary per operation, followed by the HdrHistogram percentile
+     * distribution of all the operations, in milliseconds.
+     *
+     * @param output where to print.
+     */
+    public void print(PrintStream output) {
+      output.printf("%d operations in %d ms: %.1f ops/s, %.1f%% read hits, latencies %s%n", getOperations(),
+          duration, getThroughput(), getHitRatio() * 100,
+          corrected ? "from the intended start" : "NOT corrected for coordinated omission (no rate set)");
+      summary(output, "read", reads);
+      summary(output, "write", writes);
+      summary(output, "clear", clears);
+      output.println();
+      all.outputPercentileDistribution(output, 1000.0);
+    }
+
+    private static void summary(PrintStream output, String name, Histogram histogram) {
+      if (histogram.getTotalCount() == 0) {
+        return;
+      }
+      output.printf("%-6s %9d ops  p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms%n", name,
+          histogram.getTotalCount(), histogram.getValueAtPercentile(50) / 1000.0,
+          histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+          histogram.getMaxValue() / 1000.0);
+    }
+
+  }
+
+  /**
+   * Usage: {@code LoadGenerator} with the optional system properties
+   * <ul>
+   * <li>{@code loadtest.threads}, default 8;</li>
+   * <li>{@code loadtest.duration} and {@code loadtest.warmup}, in seconds, default 10 and 2;</li>
+   * <li>{@code loadtest.rate}, the target operations per second, default 0 for back to back;</li>
+   * <li>{@code loadtest.keys} and {@code loadtest.skew}, default 1000 and 0.99;</li>
+   * <li>{@code loadtest.valuesize.min} and {@code loadtest.valuesize.max}, in bytes, default 100 and 1000;</li>
+   * <li>{@code loadtest.reads} and {@code loadtest.clears}, the shares of the operations, default 0.9 and 0.001.</li>
+   * </ul>
+   * The {@code org.mybatis.caches.memcached.*} system properties configure the client.
+   *
+   * @param args unused.
+   * @throws Exception if the run fails.
+   */
+  public static void main(String[] args) throws Exception {
+    EmbeddedMemcachedServer server = null;
+    if (System.getProperty("org.mybatis.caches.memcached.servers") == null) {
+      server = new EmbeddedMemcachedServer().start();
+      System.setProperty("org.mybatis.caches.memcached.servers", server.getServer());
+      System.out.println("Using an embedded memcached on " + server.getServer());
+    }
+
+    LoadGenerator generator = new LoadGenerator();
+    generator.setThreads(Integer.getInteger("loadtest.threads", 8));
+    generator.setDuration(TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.duration", 10)));
+    generator.setWarmup(TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.warmup", 2)));
+    generator.setRate(Long.getLong("loadtest.rate", 0));
+    generator.setKeys(Integer.getInteger("loadtest.keys", 1000));
+    generator.setSkew(Double.parseDouble(System.getProperty("loadtest.skew", "0.99")));
+    generator.setValueSize(Integer.getInteger("loadtest.valuesize.min", 100),
+        Integer.getInteger("loadtest.valuesize.max", 1000));
+    generator.setMix(Double.parseDouble(System.getProperty("loadtest.reads", "0.9")),
+        Double.parseDouble(System.getProperty("loadtest.clears", "0.001")));
+
+    MemcachedCache cache = new MemcachedCache("LoadGenerator");
+    generator.preload(cache);
+    generator.run(cache).print(System.out);
+
+    if (server != null) {
+      server.close();
+    }
+  }
+
+}
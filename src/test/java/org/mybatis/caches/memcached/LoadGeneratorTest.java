@@ -0,0 +1,107 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.junit.Test;
+
+public final class LoadGeneratorTest {
+
+  @Test
+  public void shouldRunTheConfiguredMix() throws Exception {
+    InMemoryCache cache = new InMemoryCache();
+    LoadGenerator generator = new LoadGenerator();
+    generator.setThreads(4);
+    generator.setWarmup(0);
+    generator.setDuration(1000);
+    generator.setKeys(100);
+    generator.setMix(0.5, 0);
+
+    generator.preload(cache);
+    LoadGenerator.Report report = generator.run(cache);
+
+    assertTrue(report.getOperations() > 0);
+    assertEquals(report.getOperations(), report.getReads().getTotalCount() + report.getWrites().getTotalCount());
+    assertEquals(0, report.getClears().getTotalCount());
+    assertEquals(0.5, (double) report.getReads().getTotalCount() / report.getOperations(), 0.05);
+    assertEquals(1, report.getHitRatio(), 0);
+  }
+
+  @Test
+  public void shouldIssueOperationsAtTheTargetRate() throws Exception {
+    InMemoryCache cache = new InMemoryCache();
+    LoadGenerator generator = new LoadGenerator();
+    generator.setThreads(2);
+    generator.setWarmup(200);
+    generator.setDuration(1000);
+    generator.setRate(500);
+    generator.setMix(0.8, 0.2);
+
+    LoadGenerator.Report report = generator.run(cache);
+
+    assertEquals(500, report.getOperations(), 50);
+    assertTrue(report.getClears().getTotalCount() > 0);
+  }
+
+  private static final class InMemoryCache implements Cache {
+
+    private final ConcurrentMap<Object, Object> entries = new ConcurrentHashMap<Object, Object>();
+
+    @Override
+    public String getId() {
+      return "LoadGeneratorTest";
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      entries.put(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return entries.get(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      return entries.remove(key);
+    }
+
+    @Override
+    public void clear() {
+      entries.clear();
+    }
+
+    @Override
+    public int getSize() {
+      return entries.size();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+
+  }
+
+}
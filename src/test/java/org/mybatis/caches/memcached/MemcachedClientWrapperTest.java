@@ -0,0 +1,79 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public final class MemcachedClientWrapperTest {
+
+  private static final String ID = "background";
+
+  @Test
+  public void shouldStartOnTheNextInvalidationAfterAFailedBackgroundStart() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    try {
+      MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+      config.setTransport(TransportType.SOCKET);
+      config.setBackgroundStart(true);
+      config.setServers(new String[] { "localhost:not-a-port" });
+      MemcachedClientWrapper wrapper = new MemcachedClientWrapper(config);
+      // the first background attempt fails
+      Thread.sleep(200);
+
+      try {
+        wrapper.removeGroupAsync(ID).get(5, TimeUnit.SECONDS);
+        fail("The servers are misconfigured");
+      } catch (ExecutionException e) {
+        // expected
+      }
+
+      config.setServers(new String[] { server.getServer() });
+      wrapper.removeGroupAsync(ID).get(5, TimeUnit.SECONDS);
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void shouldNotRememberTheRefreshAsAMiss() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    try {
+      MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+      config.setTransport(TransportType.META);
+      config.setServers(new String[] { server.getServer() });
+      config.setExpiration(60);
+      config.setRefreshAhead(10);
+      config.setNegativeCacheIds(new String[] { ID });
+      MemcachedClientWrapper wrapper = new MemcachedClientWrapper(config);
+      wrapper.putObject("key", "value", ID);
+      server.advanceTime(55);
+
+      // elected to refresh it, while the other readers keep the current value
+      assertNull(wrapper.getObject("key", ID));
+      assertEquals("value", wrapper.getObject("key", ID));
+    } finally {
+      server.close();
+    }
+  }
+
+}
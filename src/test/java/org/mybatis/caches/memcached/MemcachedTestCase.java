@@ -15,35 +15,77 @@
  */
 package org.mybatis.caches.memcached;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 /**
  * HOW TO RUN THE TEST
  *
- * Install memcached:
+ * Launch <code>mvn test</code>: the test runs against an {@link EmbeddedMemcachedServer}.
+ *
+ * To run it against a real memcached instead, install it:
  * <ul>
  * <li>on ubuntu: open the shell and type <code>sudo apt-get install memcached</code></li>
  * <li>on mac os x: open the terminal and type <code>sudo port install memcached</code></li>
  * </ul>
  *
- * launch <code>mvn test</code>.
+ * and launch <code>mvn test -Dorg.mybatis.caches.memcached.servers=localhost:11211</code>.
  */
 public final class MemcachedTestCase {
 
   private static final String DEFAULT_ID = "MEMCACHED";
 
+  private static final String NORMALIZED_ID = "MEMCACHED_NORMALIZED";
+
+  private static final String MISSES_ID = "MEMCACHED_MISSES";
+
+  /**
+   * How long the misses are remembered, in milliseconds.
+   */
+  private static final int MISSES_TTL = 500;
+
+  private static final String SERVERS_PROPERTY = "org.mybatis.caches.memcached.servers";
+
+  private static EmbeddedMemcachedServer server;
+
   private MemcachedCache cache;
 
+  @BeforeClass
+  public static void startServer() throws Exception {
+    if (System.getProperty(SERVERS_PROPERTY) == null) {
+      server = new EmbeddedMemcachedServer().start();
+      System.setProperty(SERVERS_PROPERTY, server.getServer());
+    }
+    System.setProperty("org.mybatis.caches.memcached.chunksize", "1000000");
+    System.setProperty("org.mybatis.caches.memcached.normalize.ids", NORMALIZED_ID);
+    System.setProperty("org.mybatis.caches.memcached.dedupe.minsize", "1024");
+    System.setProperty("org.mybatis.caches.memcached.negativecache.ids", MISSES_ID);
+    System.setProperty("org.mybatis.caches.memcached.negativecache.ttl", String.valueOf(MISSES_TTL));
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
   @Before
   public void newCache() {
     cache = new MemcachedCache(DEFAULT_ID);
@@ -78,6 +120,89 @@ public final class MemcachedTestCase {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  public void shouldStoreValuesLargerThanAnItem() {
+    byte[] large = new byte[3 * 1024 * 1024];
+    new Random(1).nextBytes(large);
+
+    cache.putObject("large", large);
+    assertArrayEquals(large, (byte[]) cache.getObject("large"));
+
+    cache.clear();
+    assertNull(cache.getObject("large"));
+  }
+
+  @Test
+  public void shouldStoreIdenticalValuesOnce() {
+    byte[] value = new byte[64 * 1024];
+    new Random(2).nextBytes(value);
+    // a clear leaves an empty group, whether this test runs first or not
+    cache.putObject("other", "value");
+    cache.clear();
+    int empty = server == null ? 0 : server.size();
+
+    cache.putObject("first", value);
+    int size = server == null ? 0 : server.size();
+    cache.putObject("second", value.clone());
+    if (server != null) {
+      // just the pointer
+      assertEquals(size + 1, server.size());
+    }
+    assertArrayEquals(value, (byte[]) cache.getObject("first"));
+    assertArrayEquals(value, (byte[]) cache.getObject("second"));
+
+    cache.clear();
+    assertNull(cache.getObject("first"));
+    assertNull(cache.getObject("second"));
+    if (server != null) {
+      // the content is deleted along with the pointers
+      assertEquals(empty, server.size());
+    }
+  }
+
+  @Test
+  public void shouldLookupInParallelAsynchronously() {
+    for (int i = 0; i < 10; i++) {
+      cache.putObjectAsync(i, i).join();
+    }
+
+    List<CompletableFuture<Object>> lookups = new ArrayList<CompletableFuture<Object>>();
+    for (int i = 0; i < 10; i++) {
+      lookups.add(cache.getObjectAsync(i));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, lookups.get(i).join());
+    }
+
+    assertEquals(0, cache.removeObjectAsync(0).join());
+    cache.clearAsync().join();
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldFlushStagedEntriesOnCommit() {
+    BatchingTransactionalCache transactionalCache = new BatchingTransactionalCache(cache);
+    cache.clear();
+
+    for (int i = 0; i < 30; i++) {
+      transactionalCache.putObject(i, i);
+    }
+    assertNull(cache.getObject(0));
+
+    transactionalCache.commit();
+    for (int i = 0; i < 30; i++) {
+      assertEquals(i, cache.getObject(i));
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<String> keys = (Set<String>) cache.getObject(DEFAULT_ID);
+    assertEquals(30, keys.size());
+
+    transactionalCache.clear();
+    transactionalCache.rollback();
+    assertEquals(0, cache.getObject(0));
+  }
+
   @Test
   public void shouldAcceptAKeyBiggerThan250() {
     char[] keyChar = new char[1024];
@@ -88,6 +213,54 @@ public final class MemcachedTestCase {
     assertEquals(value, cache.getObject(key));
   }
 
+  @Test
+  public void shouldRememberTheMissesOfTheConfiguredIdsOnly() {
+    MemcachedCache misses = new MemcachedCache(MISSES_ID);
+    assertNull(misses.getObject("remembered"));
+    assertNull(cache.getObject("forgotten"));
+
+    storeBehindTheCache("remembered", "value");
+    storeBehindTheCache("forgotten", "value");
+    assertNull(misses.getObject("remembered"));
+    assertEquals("value", cache.getObject("forgotten"));
+  }
+
+  @Test
+  public void shouldForgetTheMissesOnPutAndClear() {
+    MemcachedCache misses = new MemcachedCache(MISSES_ID);
+    assertNull(misses.getObject("put"));
+    misses.putObject("put", "value");
+    assertEquals("value", misses.getObject("put"));
+
+    assertNull(misses.getObject("cleared"));
+    storeBehindTheCache("cleared", "value");
+    misses.clear();
+    assertEquals("value", misses.getObject("cleared"));
+  }
+
+  @Test
+  public void shouldForgetTheMissesAfterTheirTtl() throws Exception {
+    MemcachedCache misses = new MemcachedCache(MISSES_ID);
+    assertNull(misses.getObject("expiring"));
+    storeBehindTheCache("expiring", "value");
+    assertNull(misses.getObject("expiring"));
+
+    Thread.sleep(MISSES_TTL + 100);
+    assertEquals("value", misses.getObject("expiring"));
+  }
+
+  @Test
+  public void shouldRemoveAnEntryTheCacheMisses() {
+    MemcachedCache misses = new MemcachedCache(MISSES_ID);
+    assertNull(misses.getObject("removed"));
+    storeBehindTheCache("removed", "value");
+
+    assertEquals("value", misses.removeObject("removed"));
+    // forgets the misses, not the entry stored behind the cache
+    misses.clear();
+    assertNull(misses.getObject("removed"));
+  }
+
   /**
    * The group should contain all keys even if race conditions are present
    */
@@ -140,4 +313,89 @@ public final class MemcachedTestCase {
     assertEquals(count, valuesPerThread * threadTestCount);
   }
 
+  @Test
+  public void shouldStoreTheSharedEntitiesOnce() {
+    MemcachedCache normalized = new MemcachedCache(NORMALIZED_ID);
+    Customer shared = new Customer(1, "shared");
+    List<Customer> first = Arrays.asList(shared, new Customer(2, "first"));
+    List<Customer> second = Arrays.asList(new Customer(3, "second"), shared, shared);
+    normalized.putObject("first", new ArrayList<Customer>(first));
+    normalized.putObject("second", new ArrayList<Customer>(second));
+
+    assertEquals(first, normalized.getObject("first"));
+    List<?> read = (List<?>) normalized.getObject("second");
+    assertEquals(second, read);
+    assertSame(read.get(1), read.get(2));
+    assertEquals(shared, normalized.getObject(NORMALIZED_ID + "#entity:" + Customer.class.getName() + ":1"));
+
+    // a list missing any entity is a miss
+    normalized.removeObject(NORMALIZED_ID + "#entity:" + Customer.class.getName() + ":2");
+    assertNull(normalized.getObject("first"));
+    assertEquals(second, normalized.getObject("second"));
+
+    normalized.clear();
+    assertNull(normalized.getObject("second"));
+    assertNull(normalized.getObject(NORMALIZED_ID + "#entity:" + Customer.class.getName() + ":1"));
+  }
+
+  @Test
+  public void shouldNotShareTheEntitiesOfDifferentlyShapedSelects() {
+    MemcachedCache normalized = new MemcachedCache(NORMALIZED_ID);
+    // as CacheKey.toString(), the same row read by two statements
+    String summaries = "1:1:com.acme.CustomerMapper.selectSummaries:0:2147483647:select id from customer";
+    String details = "2:2:com.acme.CustomerMapper.selectDetails:0:2147483647:select * from customer";
+    List<Customer> summary = Arrays.asList(new Customer(7, "summary"));
+    List<Customer> detail = Arrays.asList(new Customer(7, "detail"));
+    normalized.putObject(summaries, new ArrayList<Customer>(summary));
+    normalized.putObject(details, new ArrayList<Customer>(detail));
+
+    assertEquals(summary, normalized.getObject(summaries));
+    assertEquals(detail, normalized.getObject(details));
+    normalized.clear();
+  }
+
+  /**
+   * Writes an entry straight to Memcached, as another node would: it's in no
+   * group, so a clear doesn't delete it.
+   */
+  private static void storeBehindTheCache(Object key, Object value) {
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    MemcachedTransport transport = config.getTransport().create("behind-the-cache", config, 1);
+    try {
+      String keyString = config.getKeyPrefix() + config.getKeyFormat().digest(key.toString(), config.getKeyDigestLength());
+      transport.set(keyString, SerializationUtils.serialize(value), 0);
+    } finally {
+      transport.shutdown();
+    }
+  }
+
+  public static final class Customer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+
+    private final String name;
+
+    Customer(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Customer && ((Customer) obj).id == id && ((Customer) obj).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+
+  }
+
 }
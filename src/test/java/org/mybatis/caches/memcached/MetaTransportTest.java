@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class MetaTransportTest {
+
+  private static final byte[] VALUE = { 1, 2, 3 };
+
+  private EmbeddedMemcachedServer server;
+
+  private MemcachedTransport transport;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new EmbeddedMemcachedServer().start();
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    config.setServers(new String[] { server.getServer() });
+    config.setSocketTO(500);
+    transport = TransportType.META.create("meta", config, 2);
+  }
+
+  @After
+  public void tearDown() {
+    transport.shutdown();
+    server.close();
+  }
+
+  @Test
+  public void shouldStoreAndDelete() {
+    assertTrue(transport.set("key", VALUE, 0));
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+    assertTrue(transport.delete("key"));
+    assertNull(transport.get("key"));
+    assertFalse(transport.delete("key"));
+  }
+
+  @Test
+  public void shouldStoreConditionally() {
+    assertTrue(transport.add("key", VALUE, 0));
+    assertFalse(transport.add("key", new byte[] { 4 }, 0));
+
+    MemcachedTransport.CasValue read = transport.gets("key");
+    assertTrue(transport.cas("key", new byte[] { 5 }, read.getCas()));
+    assertFalse(transport.cas("key", new byte[] { 6 }, read.getCas()));
+    assertArrayEquals(new byte[] { 5 }, (byte[]) transport.get("key"));
+  }
+
+  @Test
+  public void shouldReadOnlyTheFoundItems() {
+    transport.set("first", VALUE, 0);
+    transport.set("third", new byte[] { 3 }, 0);
+
+    Map<String, Object> values = transport.getMulti(new String[] { "first", "second", "third" });
+    assertEquals(2, values.size());
+    assertArrayEquals(VALUE, (byte[]) values.get("first"));
+    assertArrayEquals(new byte[] { 3 }, (byte[]) values.get("third"));
+    assertEquals(new HashSet<String>(Arrays.asList("first", "third")),
+        transport.exists(new String[] { "first", "second", "third" }));
+  }
+
+  @Test
+  public void shouldTouchExistingItems() {
+    transport.set("key", VALUE, 60);
+    server.advanceTime(59);
+    assertTrue(transport.touch("key", 60));
+    server.advanceTime(59);
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+    assertFalse(transport.touch("missing", 60));
+  }
+
+  @Test
+  public void shouldElectASingleReaderToRefresh() {
+    transport.set("key", VALUE, 60);
+
+    MemcachedTransport.MetaValue fresh = transport.getWithMeta("key", 10);
+    assertArrayEquals(VALUE, (byte[]) fresh.getValue());
+    assertTrue(fresh.getTtl() > 50);
+    assertFalse(fresh.isWin());
+
+    server.advanceTime(55);
+    assertTrue(transport.getWithMeta("key", 10).isWin());
+    MemcachedTransport.MetaValue other = transport.getWithMeta("key", 10);
+    assertFalse(other.isWin());
+    assertArrayEquals(VALUE, (byte[]) other.getValue());
+
+    transport.set("key", VALUE, 60);
+    server.advanceTime(55);
+    assertTrue(transport.getWithMeta("key", 10).isWin());
+    assertNull(transport.getWithMeta("missing", 10));
+  }
+
+}
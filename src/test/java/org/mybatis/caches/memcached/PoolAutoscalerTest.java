@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public final class PoolAutoscalerTest {
+
+  @Test
+  public void shouldGrowWhenCallersWaitForConnections() {
+    PoolAutoscaler autoscaler = new PoolAutoscaler(5, 40);
+    for (int i = 0; i < 60; i++) {
+      autoscaler.begin();
+    }
+
+    assertEquals(15, autoscaler.nextMaxConn(10, 2));
+    assertEquals(22, autoscaler.nextMaxConn(15, 2));
+    assertEquals(33, autoscaler.nextMaxConn(22, 2));
+    assertEquals(40, autoscaler.nextMaxConn(33, 2));
+  }
+
+  @Test
+  public void shouldShrinkWhenConnectionsAreIdle() {
+    PoolAutoscaler autoscaler = new PoolAutoscaler(5, 40);
+    autoscaler.begin();
+    autoscaler.end();
+
+    assertEquals(15, autoscaler.nextMaxConn(20, 2));
+    assertEquals(12, autoscaler.nextMaxConn(15, 2));
+    assertEquals(5, autoscaler.nextMaxConn(6, 2));
+    assertEquals(5, autoscaler.nextMaxConn(5, 2));
+  }
+
+  @Test
+  public void shouldKeepTheSizeUnderModerateLoad() {
+    PoolAutoscaler autoscaler = new PoolAutoscaler(5, 40);
+    for (int i = 0; i < 10; i++) {
+      autoscaler.begin();
+    }
+
+    assertEquals(10, autoscaler.nextMaxConn(10, 2));
+  }
+
+}
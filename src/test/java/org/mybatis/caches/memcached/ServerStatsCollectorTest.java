@@ -0,0 +1,112 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ServerStatsCollectorTest {
+
+  private EmbeddedMemcachedServer server;
+
+  private SocketTransport transport;
+
+  private final ServerStatsCollector collector = new ServerStatsCollector();
+
+  @Before
+  public void setUp() throws Exception {
+    server = new EmbeddedMemcachedServer(64 * 1024).start();
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    config.setServers(new String[] { server.getServer() });
+    transport = new SocketTransport(config, 1);
+  }
+
+  @After
+  public void tearDown() {
+    transport.shutdown();
+    server.close();
+  }
+
+  @Test
+  public void shouldReportTheServersAndTheirSlabs() {
+    store("k00", 99);
+    transport.get("k00");
+    collector.collect(transport);
+
+    List<String> report = collector.dump();
+    assertTrue(report.get(0), report.get(0).startsWith(server.getServer() + " items=1 "));
+    assertTrue(report.get(0), report.get(0).contains(" hitRatio=100.0% evictions=0 recentEvictions=0"));
+    assertTrue(report.get(1), report.get(1).startsWith(server.getServer() + " slab=3 chunk=152 items=1 pages=1 "));
+  }
+
+  @Test
+  public void shouldHintAtEvictions() {
+    collector.collect(transport);
+    for (int i = 0; i < 100; i++) {
+      store("k" + i, 1000);
+    }
+    collector.collect(transport);
+
+    assertTrue(collector.getEvictions() > 0);
+    assertTrue(collector.dump().toString(), contains(collector.dump(), "HINT " + server.getServer() + " evicted "));
+  }
+
+  @Test
+  public void shouldHintAtWastedChunks() {
+    // 1130 bytes items, just above the 1120 bytes chunks
+    for (int i = 0; i < 10; i++) {
+      store("k0" + i, 1077);
+    }
+    store("k10", 1047);
+    collector.collect(transport);
+
+    assertTrue(collector.dump().toString(), contains(collector.dump(), "HINT 10 of the latest 11 items written "
+        + "(1130-1130 bytes) land in the 1400 bytes chunks, wasting 19% of them; 10 bytes less would fit the 1120 bytes chunks"));
+  }
+
+  @Test
+  public void shouldNotHintAtWellFilledChunks() {
+    for (int i = 0; i < 10; i++) {
+      store("k0" + i, 1337);
+    }
+    collector.collect(transport);
+
+    assertFalse(collector.dump().toString(), contains(collector.dump(), "HINT"));
+    assertEquals(0, collector.getEvictions());
+  }
+
+  private void store(String key, int length) {
+    transport.set(key, new byte[length], 0);
+    collector.recordItem(key, length);
+  }
+
+  private static boolean contains(List<String> report, String prefix) {
+    for (String line : report) {
+      if (line.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
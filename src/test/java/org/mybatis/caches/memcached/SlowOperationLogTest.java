@@ -0,0 +1,54 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public final class SlowOperationLogTest {
+
+  @Test
+  public void shouldKeepTheLatestSlowOperations() throws Exception {
+    SlowOperationLog log = new SlowOperationLog(2, 1, 0);
+    log.completed(new OperationTrace("get", "A", "fast", "server"));
+    for (String key : new String[] { "slow1", "slow2", "slow3" }) {
+      OperationTrace trace = new OperationTrace("get", "A", key, "server");
+      Thread.sleep(5);
+      log.completed(trace);
+    }
+
+    List<OperationTrace> dump = log.dump();
+    assertEquals(2, dump.size());
+    assertEquals("slow2", dump.get(0).getKey());
+    assertEquals("slow3", dump.get(1).getKey());
+  }
+
+  @Test
+  public void shouldSampleTheOtherOperations() {
+    SlowOperationLog log = new SlowOperationLog(10, 0, 3);
+    for (int i = 0; i < 9; i++) {
+      log.completed(new OperationTrace("get", "A", "key" + i, "server"));
+    }
+
+    List<OperationTrace> dump = log.dump();
+    assertEquals(3, dump.size());
+    assertEquals("key2", dump.get(0).getKey());
+  }
+
+}
@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class SocketTransportTest {
+
+  private static final byte[] VALUE = { 1, 2, 3 };
+
+  private static final int MAX_CONN = 4;
+
+  private EmbeddedMemcachedServer server;
+
+  private SocketTransport transport;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new EmbeddedMemcachedServer().start();
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    config.setServers(new String[] { server.getServer() });
+    config.setSocketTO(500);
+    transport = new SocketTransport(config, MAX_CONN);
+  }
+
+  @After
+  public void tearDown() {
+    transport.shutdown();
+    server.close();
+  }
+
+  @Test
+  public void shouldStoreAndDelete() {
+    assertTrue(transport.set("key", VALUE, 0));
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+    assertTrue(transport.delete("key"));
+    assertNull(transport.get("key"));
+    assertFalse(transport.delete("key"));
+  }
+
+  @Test
+  public void shouldAddOnlyMissingItems() {
+    assertTrue(transport.add("key", VALUE, 0));
+    assertFalse(transport.add("key", new byte[] { 4 }, 0));
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+  }
+
+  @Test
+  public void shouldTouchExistingItems() {
+    transport.set("key", VALUE, 60);
+    server.advanceTime(59);
+    assertTrue(transport.touch("key", 60));
+    server.advanceTime(59);
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+    assertFalse(transport.touch("missing", 60));
+  }
+
+  @Test
+  public void shouldReadTheServerStats() {
+    transport.set("key", VALUE, 0);
+    transport.get("key");
+    transport.get("missing");
+
+    Map<String, String> stats = transport.stats(null).get(server.getServer());
+    assertEquals("1", stats.get("get_hits"));
+    assertEquals("1", stats.get("get_misses"));
+    assertEquals("1", stats.get("curr_items"));
+    assertEquals("96", transport.stats("slabs").get(server.getServer()).get("1:chunk_size"));
+    assertEquals("1", transport.stats("items").get(server.getServer()).get("items:1:number"));
+  }
+
+  @Test
+  public void shouldGetMultipleItems() {
+    for (int i = 0; i < 250; i++) {
+      transport.set("key" + i, new byte[] { (byte) i }, 0);
+    }
+    String[] keys = new String[300];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "key" + i;
+    }
+
+    Map<String, Object> values = transport.getMulti(keys);
+    assertEquals(250, values.size());
+    assertArrayEquals(new byte[] { 42 }, (byte[]) values.get("key42"));
+  }
+
+  @Test
+  public void shouldNotTellWhichItemsExistWhenAServerFailed() throws Exception {
+    ServerSocket down = new ServerSocket(0);
+    down.close();
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    config.setServers(new String[] { server.getServer(), "127.0.0.1:" + down.getLocalPort() });
+    config.setFailover(false);
+    SocketTransport partial = new SocketTransport(config, MAX_CONN);
+    String[] keys = new String[20];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "key" + i;
+    }
+
+    assertNull(partial.exists(keys));
+    assertNotNull(partial.getMulti(keys));
+    partial.shutdown();
+  }
+
+  @Test
+  public void shouldRejectStaleCas() {
+    transport.set("key", VALUE, 0);
+    MemcachedTransport.CasValue read = transport.gets("key");
+    assertNotNull(read);
+    transport.set("key", new byte[] { 4 }, 0);
+
+    assertFalse(transport.cas("key", new byte[] { 5 }, read.getCas()));
+    assertTrue(transport.cas("key", new byte[] { 5 }, transport.gets("key").getCas()));
+  }
+
+  @Test
+  public void shouldReportInjectedCasConflicts() {
+    transport.set("key", VALUE, 0);
+    server.setCasConflictRate(1);
+
+    assertFalse(transport.cas("key", new byte[] { 4 }, transport.gets("key").getCas()));
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+  }
+
+  @Test
+  public void shouldExpireItems() {
+    transport.set("key", VALUE, 60);
+    server.advanceTime(59);
+    assertNotNull(transport.get("key"));
+    server.advanceTime(1);
+    assertNull(transport.get("key"));
+  }
+
+  @Test
+  public void shouldNotStoreItemsLargerThanTheLimit() {
+    assertFalse(transport.set("key", new byte[EmbeddedMemcachedServer.ITEM_SIZE_LIMIT + 1], 0));
+    assertTrue(transport.set("key", VALUE, 0));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedItems() throws Exception {
+    transport.shutdown();
+    server.close();
+    server = new EmbeddedMemcachedServer(10 * 1024).start();
+    MemcachedConfiguration config = MemcachedConfigurationBuilder.getInstance().parseConfiguration();
+    config.setServers(new String[] { server.getServer() });
+    transport = new SocketTransport(config, MAX_CONN);
+
+    transport.set("first", new byte[4000], 0);
+    transport.set("second", new byte[4000], 0);
+    transport.get("first");
+    transport.set("third", new byte[4000], 0);
+
+    assertNotNull(transport.get("first"));
+    assertNull(transport.get("second"));
+    assertNotNull(transport.get("third"));
+  }
+
+  @Test
+  public void shouldTimeOutOnSlowServer() {
+    transport.set("key", VALUE, 0);
+    server.setLatency(1000);
+    assertNull(transport.get("key"));
+
+    server.setLatency(0);
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+  }
+
+  @Test
+  public void shouldReconnectAfterDroppedConnections() {
+    transport.set("key", VALUE, 0);
+    server.dropConnections();
+
+    // every idle connection is closed, each one is discarded on its first use
+    Object value = null;
+    for (int i = 0; i <= MAX_CONN && value == null; i++) {
+      value = transport.get("key");
+    }
+    assertArrayEquals(VALUE, (byte[]) value);
+  }
+
+  @Test
+  public void shouldSurviveDroppedRequests() {
+    transport.set("key", VALUE, 0);
+    server.setDropRate(1);
+    assertNull(transport.get("key"));
+
+    server.setDropRate(0);
+    assertArrayEquals(VALUE, (byte[]) transport.get("key"));
+  }
+
+}
@@ -0,0 +1,79 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public final class StatementStatsTest {
+
+  @Test
+  public void shouldReadTheStatementOfACacheKey() {
+    assertEquals("org.example.Mapper.select",
+        CacheKeys.statementId("-1917:3452:org.example.Mapper.select:0:2147483647:select * from a where id = ?:1"));
+    assertNull(CacheKeys.statementId(42));
+    assertNull(CacheKeys.statementId("a:b:c:d:e:f"));
+  }
+
+  @Test
+  public void shouldAccountGetsAndPutsPerStatement() {
+    StatementStats stats = new StatementStats(10);
+    stats.completed(trace("put", "small", 10), false);
+    stats.completed(trace("get", "small", 10), true);
+    stats.completed(trace("get", "small", 0), false);
+    stats.completed(trace("put", "large", 5000), false);
+    stats.completed(trace("remove", "large", 0), false);
+
+    List<String> dump = stats.dump();
+    assertEquals(2, dump.size());
+    assertTrue(dump.get(0), dump.get(0).startsWith("large hits=0 misses=0 hitRatio=0.0% writes=1 bytesRead=0 bytesWritten=5000 sizeP50<=8191"));
+    assertTrue(dump.get(1), dump.get(1).startsWith("small hits=1 misses=1 hitRatio=50.0% writes=1 bytesRead=10 bytesWritten=10 sizeP50<=15"));
+  }
+
+  @Test
+  public void shouldAccountTheStatementsBeyondCapacityTogether() {
+    StatementStats stats = new StatementStats(1);
+    stats.completed(trace("get", "first", 1), true);
+    stats.completed(trace("get", "second", 1), true);
+    stats.completed(trace("get", "third", 1), true);
+
+    List<String> dump = stats.dump();
+    assertEquals(2, dump.size());
+    assertTrue(dump.get(0), dump.get(0).startsWith(StatementStats.OTHER + " hits=2"));
+  }
+
+  @Test
+  public void shouldCountSizesInPowerOfTwoBuckets() {
+    assertEquals(0, StatementStats.bucket(0));
+    assertEquals(1, StatementStats.bucket(1));
+    assertEquals(2, StatementStats.bucket(3));
+    assertEquals(3, StatementStats.bucket(4));
+    assertEquals(31, StatementStats.bucket(Long.MAX_VALUE));
+  }
+
+  private static OperationTrace trace(String type, String statement, long bytes) {
+    OperationTrace trace = new OperationTrace(type, "A", "key", statement, "server");
+    trace.bytes(bytes);
+    trace.finish();
+    return trace;
+  }
+
+}
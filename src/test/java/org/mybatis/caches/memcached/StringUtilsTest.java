@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public final class StringUtilsTest {
+
+  @Test
+  public void shouldEncodeTheWholeDigest() {
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", StringUtils.sha1Hex("abc"));
+    assertEquals("qZk-NkcGgWq6PiVxeFDCbJzQ2J0", StringUtils.sha1Base64Url("abc", 20));
+    assertEquals("ungWv48Bz-pBQUDeXa4iI7ADYaOWF3qctBD_YfIAFa0", StringUtils.sha256Base64Url("abc".getBytes()));
+  }
+
+  @Test
+  public void shouldEncodeATruncatedDigest() {
+    assertEquals("a9993e364706816a", StringUtils.sha1Hex("abc", 8));
+    assertEquals("qZk-NkcGgWo", StringUtils.sha1Base64Url("abc", 8));
+    assertEquals("qZk-NkcGgWq6Pg", StringUtils.sha1Base64Url("abc", 10));
+  }
+
+}
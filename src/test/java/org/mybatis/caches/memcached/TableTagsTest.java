@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public final class TableTagsTest {
+
+  private final TableTags tags = new TableTags(new String[] { "com.acme.OrderMapper.selectReport=orders customers",
+      "com.acme.OrderMapper.archive=orders" }, 100);
+
+  @Test
+  public void shouldReadTheQueriedTables() {
+    assertEquals(tables("orders", "items", "customers"), TableTags.readTables(
+        "SELECT * FROM app.Orders o JOIN items AS i ON i.order_id = o.id LEFT OUTER JOIN \"CUSTOMERS\" c ON c.id = o.customer_id WHERE o.id = ?"));
+    assertEquals(tables("orders", "items"), TableTags.readTables("select 1 from orders o, items i where o.id = i.order_id"));
+    assertEquals(tables("orders", "refunds"),
+        TableTags.readTables("select * from orders where id in (select order_id from refunds) order by id"));
+  }
+
+  @Test
+  public void shouldReadTheWrittenTables() {
+    assertEquals(tables("orders"), TableTags.writtenTables("UPDATE app.orders SET status = ? WHERE id = ?"));
+    assertEquals(tables("orders"), TableTags.writtenTables("insert into orders (id, status) values (?, ?)"));
+    assertEquals(tables("orders"), TableTags.writtenTables("delete from orders where id = ?"));
+    assertEquals(tables("orders", "customers"),
+        TableTags.writtenTables("delete o from orders o join customers c on c.id = o.customer_id"));
+    assertEquals(tables("orders"), TableTags.writtenTables("MERGE INTO orders o USING staged s ON (o.id = s.id)"));
+    assertEquals(tables("orders"), TableTags.writtenTables("truncate table orders"));
+    assertNull(TableTags.writtenTables("{call archive_orders(?)}"));
+  }
+
+  @Test
+  public void shouldTagTheResultsByTable() {
+    assertArrayEquals(new String[] { "table:items", "table:orders" },
+        tags.tagsOf("-1217319853:3419557433:com.acme.OrderMapper.select:0:2147483647:select * from orders join items on items.order_id = orders.id where orders.id = ?:42:dev", "com.acme.OrderMapper"));
+    assertArrayEquals(new String[] { "table:customers", "table:orders" },
+        tags.tagsOf("1:2:com.acme.OrderMapper.selectReport:0:2147483647:select * from order_report:dev", "com.acme.OrderMapper"));
+  }
+
+  @Test
+  public void shouldTagTheResultsOfUnknownTablesByNamespace() {
+    assertArrayEquals(new String[] { "namespace:com.acme.OrderMapper" }, tags.tagsOf(42, "com.acme.OrderMapper"));
+    assertArrayEquals(new String[] { "namespace:com.acme.OrderMapper" },
+        tags.tagsOf("1:2:com.acme.OrderMapper.report:0:2147483647:{call order_report(?)}:dev", "com.acme.OrderMapper"));
+  }
+
+  @Test
+  public void shouldInvalidateTheWrittenTablesAndTheNamespace() {
+    Map<String, String> writes = new LinkedHashMap<String, String>();
+    writes.put("update orders set status = ? where id = ?", "com.acme.OrderMapper.update");
+    writes.put("{call archive(?)}", "com.acme.OrderMapper.archive");
+
+    assertEquals(tables("namespace:com.acme.OrderMapper", "table:orders"), tags.writtenTags(writes, "com.acme.OrderMapper"));
+  }
+
+  @Test
+  public void shouldClearTheNamespaceWhenTheWrittenTablesAreUnknown() {
+    assertNull(tags.writtenTags(Collections.<String, String> emptyMap(), "com.acme.OrderMapper"));
+    assertNull(tags.writtenTags(Collections.singletonMap("{call purge()}", "com.acme.OrderMapper.purge"),
+        "com.acme.OrderMapper"));
+  }
+
+  @Test
+  public void shouldCarryTheTagVersionsAlongWithTheValue() {
+    byte[] data = SerializationUtils.serialize("value");
+    long[] versions = { TableTags.newVersion(), TableTags.newVersion() };
+    byte[] tagged = TableTags.wrap(versions, data);
+
+    assertArrayEquals(versions, TableTags.versionsOf(tagged));
+    assertArrayEquals(data, TableTags.unwrap(tagged));
+    assertNull(TableTags.versionsOf(data));
+    assertEquals(versions[0], TableTags.decodeVersion(TableTags.encodeVersion(versions[0])));
+  }
+
+  @Test
+  public void shouldForgetTheOldestObservationsOnly() {
+    TableTags tags = new TableTags(new String[0], 2);
+    long[] versions = { TableTags.newVersion() };
+    tags.observed("first", versions);
+    tags.observed("second", versions);
+    tags.observed("third", versions);
+
+    assertNull(tags.takeObserved("first"));
+    assertArrayEquals(versions, tags.takeObserved("second"));
+    assertArrayEquals(versions, tags.takeObserved("third"));
+  }
+
+  @Test
+  public void shouldKeepTheVersionsOfTheOldestMiss() {
+    TableTags tags = new TableTags(new String[0], 10);
+    long[] beforeWrite = { TableTags.newVersion() };
+    long[] afterWrite = { TableTags.newVersion() };
+    // a first miss queries the database, a write bumps the tag, a second miss queries again
+    tags.observed("key", beforeWrite);
+    tags.observed("key", afterWrite);
+
+    // whichever result is stored first, it's tagged as read before the write
+    assertArrayEquals(beforeWrite, tags.takeObserved("key"));
+    // the other result is not stored
+    assertNull(tags.takeObserved("key"));
+  }
+
+  private static Set<String> tables(String... tables) {
+    return new HashSet<String>(Arrays.asList(tables));
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cache throughput driven by thousands of concurrent virtual
+ * threads, needs a running Memcached like {@link MemcachedTestCase}.
+ *
+ * Usage: {@code VirtualThreadsBenchmark [memcached.properties resource] [tasks] [operations per task]};
+ * compare a configuration without {@code org.mybatis.caches.memcached.workerthreads}
+ * against one where it is set about to {@code maxConn}, adding
+ * {@code -Djdk.tracePinnedThreads=short} shows the carrier threads pinning.
+ * On JVMs without virtual threads, platform threads are used instead.
+ */
+public final class VirtualThreadsBenchmark {
+
+  private static final int KEYS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0) {
+      System.setProperty("memcached.properties.filename", args[0]);
+    }
+    int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    final int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    final MemcachedCache cache = new MemcachedCache("VirtualThreadsBenchmark");
+    for (int i = 0; i < KEYS; i++) {
+      cache.putObject(i, "value-" + i);
+    }
+
+    ExecutorService executor = newVirtualThreadPerTaskExecutor();
+    final CountDownLatch done = new CountDownLatch(tasks);
+    final AtomicLong hits = new AtomicLong();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < tasks; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          Random random = new Random();
+          try {
+            for (int j = 0; j < operations; j++) {
+              int key = random.nextInt(KEYS);
+              // 1 write every 10 reads
+              if (random.nextInt(10) == 0) {
+                cache.putObject(key, "value-" + key);
+              } else if (cache.getObject(key) != null) {
+                hits.incrementAndGet();
+              }
+            }
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    executor.shutdown();
+
+    long total = (long) tasks * operations;
+    System.out.println(tasks + " tasks, " + total + " operations in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms: "
+        + (total * TimeUnit.SECONDS.toNanos(1) / elapsed) + " ops/s, " + hits.get() + " hits");
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      System.out.println("Virtual threads not available, using platform threads");
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import java.util.Random;
+
+/**
+ * Draws integers in {@code [0, items)} following a Zipfian distribution, the
+ * lower the value the more frequent, as in "Quickly Generating Billion-Record
+ * Synthetic Databases" (Gray et al.) and YCSB.
+ */
+public final class ZipfianGenerator {
+
+  private final long items;
+
+  private final double theta;
+
+  private final double zetan;
+
+  private final double alpha;
+
+  private final double eta;
+
+  /**
+   * @param items the number of distinct values.
+   * @param theta the skew, from 0 (uniform) included to 1 excluded; 0.99 is the usual web workload.
+   */
+  public ZipfianGenerator(long items, double theta) {
+    if (items < 2) {
+      throw new IllegalArgumentException("At least 2 items are required, was " + items);
+    }
+    if (theta < 0 || theta >= 1) {
+      throw new IllegalArgumentException("Skew must be in [0, 1), was " + theta);
+    }
+    this.items = items;
+    this.theta = theta;
+
+    double zeta = 0;
+    for (long i = 1; i <= items; i++) {
+      zeta += 1 / Math.pow(i, theta);
+    }
+    zetan = zeta;
+    alpha = 1 / (1 - theta);
+    double zeta2 = 1 + 1 / Math.pow(2, theta);
+    eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+  }
+
+  public long next(Random random) {
+    double u = random.nextDouble();
+    double uz = u * zetan;
+    if (uz < 1) {
+      return 0;
+    }
+    if (uz < 1 + Math.pow(0.5, theta)) {
+      return 1;
+    }
+    return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+  }
+
+}
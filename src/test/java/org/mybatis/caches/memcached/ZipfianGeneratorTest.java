@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2012-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class ZipfianGeneratorTest {
+
+  private static final int ITEMS = 100;
+
+  private static final int DRAWS = 100000;
+
+  @Test
+  public void shouldFavorTheLowestValues() {
+    int[] counts = draw(0.99);
+
+    assertTrue(counts[0] > counts[1]);
+    assertTrue(counts[1] > counts[10]);
+    assertTrue(counts[10] > counts[ITEMS - 1]);
+    // the first 10% of the values get more than half of the draws
+    int head = 0;
+    for (int i = 0; i < ITEMS / 10; i++) {
+      head += counts[i];
+    }
+    assertTrue(head > DRAWS / 2);
+  }
+
+  @Test
+  public void shouldBeUniformWithoutSkew() {
+    int[] counts = draw(0);
+
+    for (int count : counts) {
+      assertEquals(DRAWS / ITEMS, count, DRAWS / ITEMS / 4);
+    }
+  }
+
+  private static int[] draw(double theta) {
+    ZipfianGenerator generator = new ZipfianGenerator(ITEMS, theta);
+    Random random = new Random(42);
+    int[] counts = new int[ITEMS];
+    for (int i = 0; i < DRAWS; i++) {
+      counts[(int) generator.next(random)]++;
+    }
+    return counts;
+  }
+
+}